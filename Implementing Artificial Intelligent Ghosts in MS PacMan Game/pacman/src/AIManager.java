@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Strategy management behind the AI (Ghost objects)
@@ -6,6 +7,18 @@ import java.util.ArrayList;
  * 
  */
 public class AIManager {
+	// Chase strategies
+	public static final int CHASE_FLOW_FIELD = 0; // Route table, or shared flow field rooted at the player when planning is async. Searched for otherwise
+	public static final int CHASE_INCREMENTAL = 1; // Per ghost incremental planner that learns from its previous searches
+	
+	// Path planning modes
+	public static final int PLANNING_SLICED = 0; // Searches run on the game thread, a node budget per tick
+	public static final int PLANNING_ASYNC = 1; // Searches and the chase field run on worker threads and are delivered the tick after they finish
+	
+	// Path planning limits
+	public static final int PATH_NODE_BUDGET = 1000; // Most search nodes expanded per tick, across all ghosts
+	public static final int PATH_LOOKAHEAD = 2; // Steps before the end of a ghost's path that its next path is asked for
+	
 	// References
 	private Map map;
 	private Player player;
@@ -13,8 +26,15 @@ public class AIManager {
 	// Logic
 	private boolean debugEnabled;
 	private PathFinder finder;
+	private PathScheduler scheduler;
+	private int planningMode;
+	private AsyncPathPlanner asyncPlanner;
+	private RouteTable routes;
+	private int chaseStrategy;
+	private HashMap<Ghost, IncrementalPathFinder> chasePlanners;
+	private PathFinder baselineFinder;
 	private ArrayList<Ghost> ghosts;
-	private long nextReleaseTime;
+	private int releaseTicks; // Ticks until the next ghost is let out of the jail
 	
 	/**
 	 * Class Constructor
@@ -26,8 +46,12 @@ public class AIManager {
 	public AIManager(Map m, Player pl, boolean debug) {
 		// Set vars
 		ghosts = new ArrayList<Ghost>();
+		chasePlanners = new HashMap<Ghost, IncrementalPathFinder>();
+		chaseStrategy = CHASE_FLOW_FIELD;
+		planningMode = PLANNING_SLICED;
+		asyncPlanner = null;
 		setReferences(m, pl);
-		nextReleaseTime = System.currentTimeMillis() + 10000;
+		releaseTicks = 10 * Game.TICK_RATE;
 		debugEnabled = debug;
 	}
 	
@@ -43,6 +67,72 @@ public class AIManager {
 		debugEnabled = d;
 	}
 	
+	/**
+	 * Choose how chasing ghosts find their way to the player
+	 * 
+	 * @param strategy CHASE_FLOW_FIELD or CHASE_INCREMENTAL
+	 */
+	public void setChaseStrategy(int strategy) {
+		chaseStrategy = strategy;
+	}
+	
+	/**
+	 * Get how chasing ghosts find their way to the player
+	 * 
+	 * @return CHASE_FLOW_FIELD or CHASE_INCREMENTAL
+	 */
+	public int getChaseStrategy() {
+		return chaseStrategy;
+	}
+	
+	/**
+	 * Choose where ghost path searches run. Paths walked out of the route table or chase field aren't searched for and
+	 * always come straight from the game thread
+	 * 
+	 * @param mode PLANNING_SLICED or PLANNING_ASYNC
+	 */
+	public void setPlanningMode(int mode) {
+		planningMode = mode;
+		if(mode == PLANNING_ASYNC && asyncPlanner == null)
+			asyncPlanner = new AsyncPathPlanner(map, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+		else if(mode != PLANNING_ASYNC && asyncPlanner != null)
+			shutdown();
+	}
+	
+	/**
+	 * Get where ghost path searches run
+	 * 
+	 * @return PLANNING_SLICED or PLANNING_ASYNC
+	 */
+	public int getPlanningMode() {
+		return planningMode;
+	}
+	
+	/**
+	 * Total nodes expanded by the incremental chase planners of every ghost, in the searches a fresh A* search was run
+	 * alongside. Only counted while debug is enabled
+	 * 
+	 * @return Number of nodes expanded
+	 */
+	public long getIncrementalExpansions() {
+		long total = 0;
+		for(IncrementalPathFinder planner : chasePlanners.values())
+			total += planner.getComparedExpansions();
+		return total;
+	}
+	
+	/**
+	 * Total nodes a fresh A* search would have expanded for the same chase paths. Only counted while debug is enabled
+	 * 
+	 * @return Number of nodes expanded
+	 */
+	public long getBaselineExpansions() {
+		long total = 0;
+		for(IncrementalPathFinder planner : chasePlanners.values())
+			total += planner.getBaselineExpansions();
+		return total;
+	}
+	
 	/**
 	 * Set the global map and player references. Ghosts being tracked (in the 'ghosts' ArrayList) will be updated
 	 * 
@@ -50,24 +140,50 @@ public class AIManager {
 	 * @param pl Reference to the player object
 	 */
 	public void setReferences(Map m, Player pl) {
+		// Workers plan on a copy of the old map, start them again on the new one
+		if(asyncPlanner != null) {
+			asyncPlanner.shutdown();
+			asyncPlanner = null;
+		}
+		
 		ghosts.clear();
 		map = m;
 		player = pl;
-		finder = new PathFinder(m, 500, false);
+		finder = new PathFinder(m, 500, false, new AStarHeuristic(), PathFinder.SEARCH_JUNCTIONS);
+		scheduler = new PathScheduler(finder, PATH_NODE_BUDGET);
+		routes = null;
+		chasePlanners.clear();
+		baselineFinder = null;
+		if(planningMode == PLANNING_ASYNC)
+			setPlanningMode(PLANNING_ASYNC);
 		
 		// Get a list of all AI on the map
-		int nActors = map.getNumActors();
-		for(int i = 0; i < nActors; i++) {
-			Actor a = map.getActor(i);
-			if(a.getType() == GameObject.OBJECT_GHOST) {
-				ghosts.add((Ghost)a);
-			}
+		ghosts.addAll(map.getGhosts());
+	}
+	
+	/**
+	 * Give the AI a precomputed route table for the map. When set, ghost paths are walked out of the table instead of searched for
+	 * 
+	 * @param r Route table for the current map (null to go back to searching)
+	 * @see RouteTable#load(Map, String)
+	 */
+	public void setRouteTable(RouteTable r) {
+		routes = r;
+	}
+	
+	/**
+	 * Stop the path planning worker threads, if any. Call when the AI manager is no longer needed
+	 */
+	public void shutdown() {
+		if(asyncPlanner != null) {
+			asyncPlanner.shutdown();
+			asyncPlanner = null;
 		}
 	}
 	
 	/**
 	 * Run all logic required for AI operation; fear, ghost release, path updates.
-	 * Ghost act() functions are called here
+	 * Ghost act() functions are called here. Called once a tick, so timers count ticks
 	 */
 	public void process() {
 		// Make sure the game is still running and there is a map
@@ -79,13 +195,19 @@ public class AIManager {
 		if(map.getPlayer().isPoweredUp())
 			fear = true;
 		
+		// Hand out paths the workers finished since last tick
+		if(asyncPlanner != null)
+			asyncPlanner.deliver();
+		
 		// Release the next ghost
-		if(System.currentTimeMillis() > nextReleaseTime) {
+		if(releaseTicks > 0)
+			releaseTicks--;
+		if(releaseTicks == 0) {
 			for(Ghost g : ghosts) {
 				if(g.isTrapped()) {
 					g.setTrapped(false);
 					g.move(13, 11);
-					nextReleaseTime = System.currentTimeMillis() + 8000;
+					releaseTicks = 8 * Game.TICK_RATE;
 					break;
 				}
 			}
@@ -106,6 +228,7 @@ public class AIManager {
 				}
 				
 				// Clear path and move to jail
+				cancelPath(ghost);
 				ghost.updatePath(null);
 				ghost.move(x, y);
 				ghost.setTrapped(true);
@@ -115,26 +238,55 @@ public class AIManager {
 			// Any ghost not trapped is given the current fear status
 			if(!ghost.isTrapped()) {
 				// If fear switches from false to true for this ghost, abandon their current (and likely) chase path
-				if(!ghost.isInFear() && fear)
+				if(!ghost.isInFear() && fear) {
+					cancelPath(ghost);
 					ghost.updatePath(null);
+				}
 				ghost.setFear(fear);
 			} else {
 				ghost.setFear(false);
 			}
 			
-			// Develop path for ghost
-			if(!ghost.isTrapped() && ghost.needsNewPath()) {
-				int randx = player.getX();
-				int randy = player.getY();
-				// 45% chance of randomizing a destination, or if they are fearful
+			// Develop the ghost's next path while it finishes the current one. It starts where the current one ends
+			if(!ghost.isTrapped() && !isPathPending(ghost) && !ghost.hasQueuedPath() && ghost.getStepsRemaining() <= PATH_LOOKAHEAD) {
+				int sx = ghost.getPathEndX();
+				int sy = ghost.getPathEndY();
+				// 45% chance of randomizing a destination, or if they are fearful. Otherwise chase the player
 				if(fear || Math.random() < 0.45) {
-					randx = (int)(Math.random()*map.getWidth());
-					randy = (int)(Math.random()*map.getHeight());
+					int dest = getRandomDestination(sx, sy);
+					int randx = dest % map.getWidth();
+					int randy = dest / map.getWidth();
+					// Searches are left to the workers or the scheduler, where ghosts with the least path left go first
+					if(routes != null)
+						ghost.queuePath(routes.getPath(sx, sy, randx, randy));
+					else if(asyncPlanner != null)
+						asyncPlanner.request(ghost, sx, sy, randx, randy);
+					else
+						scheduler.request(ghost, sx, sy, randx, randy, ghost.getStepsRemaining());
+				} else if(chaseStrategy == CHASE_INCREMENTAL) {
+					ghost.queuePath(getChasePlanner(ghost).findPath(sx, sy, player.getX(), player.getY()));
+				} else {
+					if(routes != null) {
+						ghost.queuePath(routes.getPath(sx, sy, player.getX(), player.getY()));
+					} else if(asyncPlanner != null) {
+						// Every chasing ghost heads for the player, so they share one field rooted at the player's tile. The
+						// workers flood it when the player changes tile, ghosts follow the previous one until it's delivered
+						FlowField field = asyncPlanner.getChaseField(player);
+						if(field != null)
+							ghost.queuePath(field.getPath(sx, sy));
+					} else {
+						// Flooding a big map takes hundreds of ticks' node budget, so on the game thread each chase is
+						// searched for under the budget like any other path
+						scheduler.request(ghost, sx, sy, player.getX(), player.getY(), ghost.getStepsRemaining());
+					}
 				}
-				Path p = finder.findPath(ghost, ghost.getX(), ghost.getY(), randx, randy);
-				ghost.updatePath(p);
 			}
-			
+		}
+		
+		// Spend this tick's search budget, finished paths go straight to their ghosts
+		scheduler.process();
+		
+		for(Ghost ghost : ghosts) {
 			// Run an act()
 			ghost.act();
 			
@@ -142,4 +294,71 @@ public class AIManager {
 			ghost.setDebugDrawPath(debugEnabled);
 		}
 	}
+	
+	// Private Methods
+	
+	/**
+	 * Check if a ghost is waiting on a path search
+	 * 
+	 * @param ghost The ghost
+	 * @return True if a search for the ghost is queued or running
+	 */
+	private boolean isPathPending(Ghost ghost) {
+		return scheduler.isPending(ghost) || (asyncPlanner != null && asyncPlanner.isPending(ghost));
+	}
+	
+	/**
+	 * Drop any path search a ghost is waiting on
+	 * 
+	 * @param ghost The ghost
+	 */
+	private void cancelPath(Ghost ghost) {
+		scheduler.cancel(ghost);
+		if(asyncPlanner != null)
+			asyncPlanner.cancel(ghost);
+	}
+	
+	/**
+	 * Pick a random destination the ghost can reach, from the other tiles in the same component as where it'll start.
+	 * Falls back to any tile on the map if it somehow starts off the walkable tiles
+	 * 
+	 * @param sx X coordinate the ghost's next path starts at
+	 * @param sy Y coordinate the ghost's next path starts at
+	 * @return Tile index (y * width + x) of the destination
+	 */
+	private int getRandomDestination(int sx, int sy) {
+		int c = map.getComponent(sx, sy);
+		if(c < 0)
+			return (int)(Math.random()*map.getWidth()*map.getHeight());
+		
+		// Draw from all but the last tile, and swap the start for the last tile. A path to where the ghost already is would be empty
+		int start = (sy * map.getWidth()) + sx;
+		int size = map.getComponentSize(c);
+		if(size == 1)
+			return start;
+		int dest = map.getComponentTile(c, (int)(Math.random()*(size - 1)));
+		if(dest == start)
+			dest = map.getComponentTile(c, size - 1);
+		return dest;
+	}
+	
+	/**
+	 * Get the incremental chase planner of a ghost, creating it on first use. While debug is enabled the planner also
+	 * runs a fresh A* search for every path so the expansions it saves can be compared. The path finder for those searches
+	 * is only created once they're needed, its arrays cover the whole map
+	 * 
+	 * @param ghost The chasing ghost
+	 * @return The ghost's planner
+	 */
+	private IncrementalPathFinder getChasePlanner(Ghost ghost) {
+		IncrementalPathFinder planner = chasePlanners.get(ghost);
+		if(planner == null) {
+			planner = new IncrementalPathFinder(map, ghost);
+			chasePlanners.put(ghost, planner);
+		}
+		if(debugEnabled && baselineFinder == null)
+			baselineFinder = new PathFinder(map, 500, false);
+		planner.setBaseline(debugEnabled ? baselineFinder : null);
+		return planner;
+	}
 }
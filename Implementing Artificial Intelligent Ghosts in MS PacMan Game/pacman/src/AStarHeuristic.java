@@ -1,17 +1,28 @@
 /**
  * A heuristic that uses the tile that is closest to the target
  * as the next best tile.
- * 
- * 
+ *
+ * On maps with teleports the straight line distance can overestimate, so the
+ * cost is the shorter of going straight there and walking to a portal first.
+ * The cost of leaving each portal is worked out once per target over every
+ * chain of portals, which keeps the estimate admissible and consistent.
+ *
+ *
  */
 public class AStarHeuristic  {
+	/** The map the portal costs were worked out for */
+	private Map portalMap;
+	/** The target the portal costs were worked out for */
+	private int portalTargetX = -1, portalTargetY = -1;
+	/** Lower bound on the cost from each portal's entrance to the target, going through the portal */
+	private float[] viaPortal = new float[0];
 
 	/**
 	 * Get the additional heuristic cost of the given tile. This controls the
-	 * order in which tiles are searched while attempting to find a path to the 
+	 * order in which tiles are searched while attempting to find a path to the
 	 * target location. The lower the cost the more likely the tile will
 	 * be searched.
-	 * 
+	 *
 	 * @param map The map on which the path is being found
 	 * @param mover The entity that is moving along the path
 	 * @param x The x coordinate of the tile being evaluated
@@ -20,13 +31,78 @@ public class AStarHeuristic  {
 	 * @param ty Teh y coordinate of the target location
 	 * @return The cost associated with the given tile
 	 */
-	public float getCost(Map map, Actor mover, int x, int y, int tx, int ty) {		
+	public float getCost(Map map, Actor mover, int x, int y, int tx, int ty) {
+		float result = getDistance(x, y, tx, ty);
+
+		int portals = map.getNumPortals();
+		if (portals == 0) {
+			return result;
+		}
+
+		if ((map != portalMap) || (tx != portalTargetX) || (ty != portalTargetY) || (viaPortal.length != portals)) {
+			findPortalCosts(map, tx, ty);
+		}
+		for (int i = 0; i < portals; i++) {
+			float via = getDistance(x, y, map.getPortalX(i), map.getPortalY(i)) + viaPortal[i];
+			if (via < result) {
+				result = via;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the estimated cost of moving between two tiles with no portals involved.
+	 * It must never be more than the real cost of any walk between them.
+	 *
+	 * @param x The x coordinate of the first tile
+	 * @param y The y coordinate of the first tile
+	 * @param tx The x coordinate of the second tile
+	 * @param ty The y coordinate of the second tile
+	 * @return The estimated cost
+	 */
+	protected float getDistance(int x, int y, int tx, int ty) {
 		float dx = tx - x;
 		float dy = ty - y;
-		
-		float result = (float) (Math.sqrt((dx*dx)+(dy*dy)));
-		
-		return result;
+
+		return (float) (Math.sqrt((dx*dx)+(dy*dy)));
 	}
 
+	/**
+	 * Work out the cheapest estimated cost from each portal's entrance to the
+	 * target, taking that portal and then walking or taking more portals
+	 *
+	 * @param map The map holding the portals
+	 * @param tx The x coordinate of the target location
+	 * @param ty The y coordinate of the target location
+	 */
+	private void findPortalCosts(Map map, int tx, int ty) {
+		int portals = map.getNumPortals();
+		if (viaPortal.length != portals) {
+			viaPortal = new float[portals];
+		}
+		for (int i = 0; i < portals; i++) {
+			viaPortal[i] = Map.PORTAL_COST + getDistance(map.getPortalDestX(i), map.getPortalDestY(i), tx, ty);
+		}
+
+		// relax until nothing improves, a chain never needs more links than there are portals
+		boolean changed = true;
+		for (int pass = 0; changed && (pass < portals); pass++) {
+			changed = false;
+			for (int i = 0; i < portals; i++) {
+				for (int j = 0; j < portals; j++) {
+					float chain = Map.PORTAL_COST + getDistance(map.getPortalDestX(i), map.getPortalDestY(i), map.getPortalX(j), map.getPortalY(j)) + viaPortal[j];
+					if (chain < viaPortal[i]) {
+						viaPortal[i] = chain;
+						changed = true;
+					}
+				}
+			}
+		}
+
+		portalMap = map;
+		portalTargetX = tx;
+		portalTargetY = ty;
+	}
 }
@@ -15,6 +15,7 @@ public class Actor extends GameObject {
 	public static final int MOVE_RIGHT = 2;
 	public static final int MOVE_DOWN = 4;
 	public static final int MOVE_LEFT = 8;
+	public static final int MOVE_TELEPORT = 16; // Step through the teleport on the current tile (path finding only)
 	
 	// Dead status
 	protected boolean isDead;
@@ -27,6 +28,15 @@ public class Actor extends GameObject {
 	protected float deltaX;
 	protected float deltaY;
 	protected float speed;
+	
+	// Where the actor was on screen before the last tick. Frames drawn between ticks show the actor part of the way from
+	// there to where it is now
+	protected float lastScreenX;
+	protected float lastScreenY;
+	protected float interpolation;
+	
+	// Next actor on the same tile, kept by the Map's occupancy index
+	protected Actor nextOnTile;
 
 	/**
 	 * Actor Class Constructor
@@ -51,6 +61,7 @@ public class Actor extends GameObject {
 		deltaX = 0;
 		deltaY = 0;
 		speed = 5;
+		savePosition();
 	}
 	
 	// Getters and Setters
@@ -73,6 +84,16 @@ public class Actor extends GameObject {
 		return spawnY;
 	}
 	
+	/**
+	 * Get the next actor standing on the same tile as this one
+	 * 
+	 * @return The next actor on the tile, null if this is the last one
+	 * @see Map#getActorAt(int, int)
+	 */
+	public Actor getNextOnTile() {
+		return nextOnTile;
+	}
+	
 	/**
 	 * Set the death status of the actor. Used by StateGame and AIManager to determine if the player / ghost has died
 	 */
@@ -91,7 +112,38 @@ public class Actor extends GameObject {
 	}
 	
 	/**
-	 * Speed is the number of pixels an actor moves across the screen in a given cycle. A full position change
+	 * Set how far between the last tick and the next the frame being drawn is. Actors are drawn that far from where
+	 * they were before the last tick to where they are now
+	 * 
+	 * @param alpha Fraction of a tick, 0 to draw the actor where it was before the last tick, 1 for where it is now
+	 * @see Game#getTickAlpha()
+	 */
+	public void setInterpolation(float alpha) {
+		interpolation = alpha;
+	}
+	
+	/**
+	 * The X coordinate on screen the actor is drawn at, relative to the map
+	 * 
+	 * @return X coordinate in pixels
+	 * @see Actor#setInterpolation(float)
+	 */
+	public int getScreenX() {
+		return interpolate(lastScreenX, (map.CELL_SIZE * positionX) + deltaX);
+	}
+	
+	/**
+	 * The Y coordinate on screen the actor is drawn at, relative to the map
+	 * 
+	 * @return Y coordinate in pixels
+	 * @see Actor#setInterpolation(float)
+	 */
+	public int getScreenY() {
+		return interpolate(lastScreenY, (map.CELL_SIZE * positionY) + deltaY);
+	}
+	
+	/**
+	 * Speed is the number of pixels an actor moves across the screen in a given tick. A full position change
 	 * is the number of pixels defined in Map.CELL_SIZE
 	 * 
 	 * @param s New Speed
@@ -121,6 +173,16 @@ public class Actor extends GameObject {
 	
 	// Public Methods
 	
+	/**
+	 * Remember where the actor is on screen before it acts, so frames drawn before the next tick can show it moving
+	 * from here. StateGame calls this for every actor at the start of each tick, and after moving them itself
+	 */
+	public void savePosition() {
+		lastScreenX = (map.CELL_SIZE * positionX) + deltaX;
+		lastScreenY = (map.CELL_SIZE * positionY) + deltaY;
+		interpolation = 1;
+	}
+	
 	/**
 	 * Attempt to move the actor to the given x,y location. This method will check if a coordinate is valid with the Map class method
 	 * canMove(). It is not necessary to call canMove() before this function
@@ -133,8 +195,11 @@ public class Actor extends GameObject {
 	public boolean move(int x, int y) {
 		boolean res = map.canMove(this, x, y);
 		if(res) {
+			int oldX = positionX;
+			int oldY = positionY;
 			positionX = x;
 			positionY = y;
+			map.updateActorPosition(this, oldX, oldY);
 		}
 		return res;
 	}
@@ -158,5 +223,22 @@ public class Actor extends GameObject {
 	@Override
 	public void paint(Graphics2D g) {
 	}
+	
+	// Private Methods
+	
+	/**
+	 * Work out a coordinate the actor is drawn at from where it was before the last tick and where it is now. An actor
+	 * that jumped more than a tile (through a teleport, or back to its spawn point) is drawn where it is now rather than
+	 * sliding across the map
+	 * 
+	 * @param last Coordinate before the last tick in pixels
+	 * @param now Coordinate now in pixels
+	 * @return Coordinate to draw at in pixels
+	 */
+	private int interpolate(float last, float now) {
+		if(Math.abs(now - last) > map.CELL_SIZE)
+			return (int)now;
+		return (int)(last + ((now - last) * interpolation));
+	}
 
 }
@@ -0,0 +1,262 @@
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Plans ghost paths on a pool of worker threads so searches never hold up the game loop. Every worker has its own
+ * PathFinder over a collision-only copy of the map, which nothing on the game thread writes to. Finished paths are
+ * queued up and handed to their ghosts by deliver() at the start of the next tick.
+ * 
+ * Only a ghost's latest request is delivered. The AIManager only sends random destination searches here. Chasing ghosts
+ * follow a flow field rooted at the player, which is flooded on the workers too, one flood at a time. A flood that
+ * finishes after the player has left its tile is dropped and flooded again. Until a new field is delivered the game
+ * thread carries on following the previous one.
+ * 
+ * 
+ */
+public class AsyncPathPlanner {
+	// References
+	private Map collision; // Collision-only copy of the map, read by the workers
+	
+	// Logic
+	private ExecutorService workers;
+	private ThreadLocal<PathFinder> finders;
+	private ConcurrentLinkedQueue<Request> finished;
+	private HashMap<Ghost, Integer> latest; // Id of each ghost's latest request. Only touched on the game thread
+	private int nextRequestId;
+	private int droppedResults;
+	
+	// Chase field. The game thread follows 'field' while a worker floods 'spareField', they swap when the flood is delivered
+	private FlowField field;
+	private FlowField spareField;
+	private Actor fieldTarget; // Actor the flood in progress leads to, null if nothing is being flooded
+	private int fieldX; // Tile the flood in progress leads to
+	private int fieldY;
+	private volatile boolean fieldFinished; // Set by the worker once the flood is done
+	private int droppedFields;
+	
+	/**
+	 * Class Constructor. Starts the worker threads
+	 * 
+	 * @param m The map paths are planned on. Walls added after this aren't seen by the workers
+	 * @param numThreads Number of worker threads
+	 */
+	public AsyncPathPlanner(Map m, int numThreads) {
+		collision = m.copyCollision();
+		finished = new ConcurrentLinkedQueue<Request>();
+		latest = new HashMap<Ghost, Integer>();
+		nextRequestId = 0;
+		droppedResults = 0;
+		field = null;
+		spareField = null;
+		fieldTarget = null;
+		droppedFields = 0;
+		
+		// Each worker builds its own path finder the first time it's used
+		finders = new ThreadLocal<PathFinder>() {
+			@Override
+			protected PathFinder initialValue() {
+				return new PathFinder(collision, 500, false, new AStarHeuristic(), PathFinder.SEARCH_JUNCTIONS);
+			}
+		};
+		
+		// Daemon threads, so a pool that's never shut down can't keep the game running
+		workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Path planner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	// Getters and Setters
+	
+	/**
+	 * Number of finished paths thrown away because they were superseded or cancelled
+	 * 
+	 * @return Number of dropped results
+	 */
+	public int getDroppedResults() {
+		return droppedResults;
+	}
+	
+	/**
+	 * Number of chase fields thrown away because the player had left their tile by the time they were delivered
+	 * 
+	 * @return Number of dropped fields
+	 */
+	public int getDroppedFields() {
+		return droppedFields;
+	}
+	
+	/**
+	 * Get the chase field leading to a target's tile. If the newest field leads somewhere else a new one is flooded on
+	 * the workers, and the newest is returned until it's delivered
+	 * 
+	 * @param target The actor the field should lead to
+	 * @return The newest field delivered, null until the first one has been
+	 */
+	public FlowField getChaseField(Actor target) {
+		if(field == null || field.getGoalX() != target.getX() || field.getGoalY() != target.getY())
+			requestField(target);
+		return field;
+	}
+
+	/**
+	 * Check if a ghost has a request that hasn't been delivered yet
+	 * 
+	 * @param g The ghost
+	 * @return True if the ghost is waiting on a path
+	 */
+	public boolean isPending(Ghost g) {
+		return latest.containsKey(g);
+	}
+
+	// Public Methods
+	
+	/**
+	 * Queue a path search on the workers. The path is handed to Ghost.queuePath() once delivered, so it should start
+	 * where the ghost's current path ends. Any earlier request from the ghost won't be delivered
+	 * 
+	 * @param g The ghost
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @see AsyncPathPlanner#deliver()
+	 */
+	public void request(Ghost g, int sx, int sy, int tx, int ty) {
+		nextRequestId++;
+		latest.put(g, nextRequestId);
+		
+		final Request r = new Request(g, nextRequestId, sx, sy, tx, ty);
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				r.path = finders.get().findPath(r.ghost, r.sx, r.sy, r.tx, r.ty);
+				finished.add(r);
+			}
+		});
+	}
+
+	/**
+	 * Stop waiting on a ghost's request. Its search still runs but the result is dropped
+	 * 
+	 * @param g The ghost
+	 */
+	public void cancel(Ghost g) {
+		latest.remove(g);
+	}
+
+	/**
+	 * Hand every path finished since the last call to its ghost, and swap in the chase field if its flood has finished
+	 * and the player is still on its tile. Call once per tick on the game thread
+	 */
+	public void deliver() {
+		if(fieldTarget != null && fieldFinished) {
+			Actor target = fieldTarget;
+			fieldTarget = null;
+			if(target.getX() == fieldX && target.getY() == fieldY) {
+				FlowField built = spareField;
+				spareField = field;
+				field = built;
+			} else {
+				// The player has moved on, flood their new tile straight away
+				droppedFields++;
+				requestField(target);
+			}
+		}
+		
+		Request r;
+		while((r = finished.poll()) != null) {
+			// Superseded or cancelled
+			Integer id = latest.get(r.ghost);
+			if(id == null || id.intValue() != r.id) {
+				droppedResults++;
+				continue;
+			}
+			latest.remove(r.ghost);
+			
+			r.ghost.queuePath(r.path);
+		}
+	}
+
+	/**
+	 * Stop the worker threads. Searches still running are interrupted and nothing more is delivered
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+		latest.clear();
+		finished.clear();
+		fieldTarget = null;
+	}
+	
+	// Private Methods
+	
+	/**
+	 * Flood a chase field to the tile a target is standing on, unless a flood is already running. The fields are over the
+	 * collision-only copy and are created by the worker the first time they're flooded, so allocating them doesn't hold up
+	 * the game thread. The game thread leaves the spare field alone until the flood is finished
+	 * 
+	 * @param target The actor the field should lead to
+	 */
+	private void requestField(Actor target) {
+		if(fieldTarget != null)
+			return;
+		
+		fieldTarget = target;
+		fieldX = target.getX();
+		fieldY = target.getY();
+		fieldFinished = false;
+		
+		final Actor mover = target;
+		final int x = fieldX;
+		final int y = fieldY;
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(spareField == null)
+					spareField = new FlowField(collision);
+				spareField.build(mover, x, y);
+				fieldFinished = true;
+			}
+		});
+	}
+
+	/**
+	 * A path search handed to the workers. The path is written by the worker before the request is queued as finished
+	 */
+	private class Request {
+		private Ghost ghost;
+		private int id;
+		private int sx;
+		private int sy;
+		private int tx;
+		private int ty;
+		private Path path;
+		
+		/**
+		 * Class Constructor
+		 * 
+		 * @param g The ghost
+		 * @param id Request id
+		 * @param sx Start X coordinate
+		 * @param sy Start Y coordinate
+		 * @param tx Target X coordinate
+		 * @param ty Target Y coordinate
+		 */
+		public Request(Ghost g, int id, int sx, int sy, int tx, int ty) {
+			ghost = g;
+			this.id = id;
+			this.sx = sx;
+			this.sy = sy;
+			this.tx = tx;
+			this.ty = ty;
+			path = null;
+		}
+	}
+}
@@ -0,0 +1,447 @@
+import java.util.Arrays;
+
+/**
+ * Breadth first floods over a map's walkable bitboard. Rather than visiting tiles one at a time, the whole frontier
+ * is grown by a step at once: every row of 64 bit words is shifted left and right and or'ed with the rows above and
+ * below, then masked with the walkable tiles that haven't been reached yet. Teleports are followed as well, at the
+ * same cost as a step.
+ * 
+ * This answers whole-map questions (what's reachable, how far is everything, can the player be reached at all) for
+ * a few word operations per row per step, which makes it cheap enough to run over large batches of maps.
+ * 
+ * The walls and teleports are taken from the map when the flood is created.
+ * 
+ * 
+ */
+public class BitboardBFS {
+	// Map parameters
+	private int mapWidth;
+	private int mapHeight;
+	private int words; // 64 bit words per row
+	private long[] walkable;
+	
+	// Teleports, as entrance and destination tile coordinates
+	private int numPortals;
+	private int[] portalX;
+	private int[] portalY;
+	private int[] portalDestX;
+	private int[] portalDestY;
+	
+	// Flood state
+	private long[] visited;
+	private long[] frontier;
+	private long[] next;
+	private int[] activeRows; // Rows the frontier has bits in
+	private int numActive;
+	private int[] nextRows; // Rows the next layer has bits in
+	private int numNext;
+	private int[] rowStamp; // Stamped when a row has been looked at for the current layer
+	private int stamp;
+	private long[] scratch; // One row, used while filling
+	private int layers;
+	
+	/**
+	 * Class Constructor
+	 * 
+	 * @param m The map to flood. Later changes to it aren't seen
+	 */
+	public BitboardBFS(Map m) {
+		mapWidth = m.getWidth();
+		mapHeight = m.getHeight();
+		words = m.getWalkableWords();
+		walkable = m.getWalkableBits();
+		
+		numPortals = m.getNumPortals();
+		portalX = new int[numPortals];
+		portalY = new int[numPortals];
+		portalDestX = new int[numPortals];
+		portalDestY = new int[numPortals];
+		for(int i = 0; i < numPortals; i++) {
+			portalX[i] = m.getPortalX(i);
+			portalY[i] = m.getPortalY(i);
+			portalDestX[i] = m.getPortalDestX(i);
+			portalDestY[i] = m.getPortalDestY(i);
+		}
+		
+		visited = new long[walkable.length];
+		frontier = new long[walkable.length];
+		next = new long[walkable.length];
+		activeRows = new int[mapHeight];
+		nextRows = new int[mapHeight];
+		rowStamp = new int[mapHeight];
+		stamp = 0;
+		scratch = new long[words];
+		layers = 0;
+	}
+
+	// Getters and Setters
+	
+	/**
+	 * Number of steps the last distance flood took before it stopped
+	 * 
+	 * @return The distance to the furthest tile reached, or to the target if it was found
+	 */
+	public int getLastLayers() {
+		return layers;
+	}
+
+	// Public Methods
+	
+	/**
+	 * Every tile that can be reached from (sx,sy)
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @return A bitboard laid out like Map.getWalkableBits(), empty if the start isn't walkable
+	 * @see Map#getWalkableBits()
+	 */
+	public long[] getReachable(int sx, int sy) {
+		fill(sx, sy);
+		return visited.clone();
+	}
+
+	/**
+	 * Number of tiles that can be reached from (sx,sy), including the start
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @return Number of reachable tiles, 0 if the start isn't walkable
+	 */
+	public int getReachableCount(int sx, int sy) {
+		fill(sx, sy);
+		
+		int count = 0;
+		for(int i = 0; i < visited.length; i++)
+			count += Long.bitCount(visited[i]);
+		return count;
+	}
+
+	/**
+	 * Check if (tx,ty) can be reached from (sx,sy)
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return True if there is a route
+	 */
+	public boolean isReachable(int sx, int sy, int tx, int ty) {
+		if(!isWalkable(tx, ty))
+			return false;
+		fill(sx, sy);
+		return getBit(visited, tx, ty);
+	}
+
+	/**
+	 * Number of steps on the shortest route from (sx,sy) to (tx,ty). Stops as soon as the target is reached
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return The number of steps, -1 if there is no route or either tile isn't walkable
+	 */
+	public int getDistance(int sx, int sy, int tx, int ty) {
+		if(!isWalkable(tx, ty))
+			return -1;
+		return flood(sx, sy, tx, ty, null);
+	}
+
+	/**
+	 * Number of steps from (sx,sy) to every tile
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @return Distances indexed by y*width+x, -1 for tiles that can't be reached
+	 */
+	public int[] getDistances(int sx, int sy) {
+		int[] distance = new int[mapWidth * mapHeight];
+		Arrays.fill(distance, -1);
+		flood(sx, sy, -1, -1, distance);
+		return distance;
+	}
+
+	// Private Methods
+	
+	/**
+	 * Flood out from (sx,sy) a layer at a time until nothing new is reached or the target is. Only the rows the
+	 * frontier is on and the rows either side of them are looked at for each layer
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate, -1 to flood everything
+	 * @param ty Target Y coordinate, -1 to flood everything
+	 * @param distance Receives the distance of every tile reached, can be null
+	 * @return The distance to the target, -1 if there is no target or it wasn't reached
+	 */
+	private int flood(int sx, int sy, int tx, int ty, int[] distance) {
+		Arrays.fill(visited, 0);
+		Arrays.fill(frontier, 0);
+		Arrays.fill(next, 0);
+		layers = 0;
+		if(!isWalkable(sx, sy))
+			return -1;
+		
+		setBit(frontier, sx, sy);
+		setBit(visited, sx, sy);
+		if(distance != null)
+			distance[(sy * mapWidth) + sx] = 0;
+		if(sx == tx && sy == ty)
+			return 0;
+		
+		int targetWord = (tx < 0) ? -1 : (ty * words) + (tx >> 6);
+		long targetBit = (tx < 0) ? 0 : 1L << tx;
+		activeRows[0] = sy;
+		numActive = 1;
+		
+		while(numActive > 0) {
+			int d = layers + 1;
+			nextStamp();
+			numNext = 0;
+			
+			// Grow into every row next to the frontier, each row once
+			for(int a = 0; a < numActive; a++) {
+				int r = activeRows[a];
+				int last = Math.min(r + 1, mapHeight - 1);
+				for(int y = Math.max(r - 1, 0); y <= last; y++) {
+					if(rowStamp[y] == stamp)
+						continue;
+					rowStamp[y] = stamp;
+					if(growRow(y))
+						nextRows[numNext++] = y;
+				}
+			}
+			
+			// Teleports with their entrance on the frontier. A row that hasn't been grown is still clear
+			for(int i = 0; i < numPortals; i++) {
+				int y = portalDestY[i];
+				if(!getBit(frontier, portalX[i], portalY[i]) || getBit(visited, portalDestX[i], y))
+					continue;
+				if(rowStamp[y] != stamp || isRowClear(next, y))
+					nextRows[numNext++] = y;
+				rowStamp[y] = stamp;
+				setBit(next, portalDestX[i], y);
+			}
+			
+			if(numNext == 0)
+				break;
+			layers = d;
+			
+			for(int a = 0; a < numNext; a++) {
+				int row = nextRows[a] * words;
+				for(int i = 0; i < words; i++) {
+					long bits = next[row + i];
+					visited[row + i] |= bits;
+					if(distance != null && bits != 0)
+						record(distance, bits, nextRows[a], i, d);
+				}
+			}
+			if(targetWord >= 0 && (next[targetWord] & targetBit) != 0)
+				return d;
+			
+			// The old frontier becomes the next layer's scratch space once it's cleared
+			for(int a = 0; a < numActive; a++)
+				Arrays.fill(frontier, activeRows[a] * words, (activeRows[a] + 1) * words, 0);
+			long[] swapBits = frontier;
+			frontier = next;
+			next = swapBits;
+			int[] swapRows = activeRows;
+			activeRows = nextRows;
+			nextRows = swapRows;
+			numActive = numNext;
+		}
+		
+		return -1;
+	}
+
+	/**
+	 * Grow the frontier one step into a row: left and right along the row and down and up from the rows either side
+	 * 
+	 * @param y The row
+	 * @return True if any tile in the row was reached for the first time
+	 */
+	private boolean growRow(int y) {
+		int row = y * words;
+		boolean any = false;
+		for(int i = 0; i < words; i++) {
+			int w = row + i;
+			long f = frontier[w];
+			long grown = f | (f << 1) | (f >>> 1);
+			if(i > 0)
+				grown |= frontier[w - 1] >>> 63;
+			if(i + 1 < words)
+				grown |= frontier[w + 1] << 63;
+			if(y > 0)
+				grown |= frontier[w - words];
+			if(y + 1 < mapHeight)
+				grown |= frontier[w + words];
+			
+			long reached = grown & walkable[w] & ~visited[w];
+			next[w] = reached;
+			any |= (reached != 0);
+		}
+		return any;
+	}
+
+	/**
+	 * Fill every tile that can be reached from (sx,sy) into the visited bitboard without working out distances.
+	 * Each row is filled along its walkable runs in one go with an add (the carry runs along a run of set bits and
+	 * stops at the first wall), then spread into the next row. The rows are swept down and up until nothing changes,
+	 * which takes a few sweeps rather than a sweep per step
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 */
+	private void fill(int sx, int sy) {
+		Arrays.fill(visited, 0);
+		if(!isWalkable(sx, sy))
+			return;
+		
+		setBit(visited, sx, sy);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int y = 0; y < mapHeight; y++)
+				changed |= fillRow(y, y - 1);
+			for(int y = mapHeight - 1; y >= 0; y--)
+				changed |= fillRow(y, y + 1);
+			
+			// Teleports out of anything filled so far
+			for(int i = 0; i < numPortals; i++) {
+				if(getBit(visited, portalX[i], portalY[i]) && !getBit(visited, portalDestX[i], portalDestY[i])) {
+					setBit(visited, portalDestX[i], portalDestY[i]);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Spread the filled tiles of one row into the row next to it and along that row's walkable runs
+	 * 
+	 * @param y The row to fill
+	 * @param from The row to spread from, can be off the map
+	 * @return True if anything new was filled
+	 */
+	private boolean fillRow(int y, int from) {
+		int row = y * words;
+		boolean any = false;
+		for(int i = 0; i < words; i++) {
+			long seed = visited[row + i];
+			if(from >= 0 && from < mapHeight)
+				seed |= visited[(from * words) + i] & walkable[row + i];
+			scratch[i] = seed;
+			any |= (seed != 0);
+		}
+		if(!any)
+			return false;
+		
+		// Towards higher x. The carry out of the top bit of a word carries on into the next word
+		long carry = 0;
+		for(int i = 0; i < words; i++) {
+			long w = walkable[row + i];
+			long seed = scratch[i] | (carry & w);
+			long filled = (((w + seed) ^ w ^ seed) & w) | seed;
+			carry = filled >>> 63;
+			scratch[i] = filled;
+		}
+		
+		// Towards lower x, the same add on the words with their bits reversed
+		carry = 0;
+		for(int i = words - 1; i >= 0; i--) {
+			long w = Long.reverse(walkable[row + i]);
+			long seed = Long.reverse(scratch[i]) | (carry & w);
+			long filled = (((w + seed) ^ w ^ seed) & w) | seed;
+			carry = filled >>> 63;
+			scratch[i] = Long.reverse(filled);
+		}
+		
+		boolean changed = false;
+		for(int i = 0; i < words; i++) {
+			if(scratch[i] != visited[row + i]) {
+				visited[row + i] = scratch[i];
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Start a new row stamp, so every row counts as not looked at yet for this layer
+	 */
+	private void nextStamp() {
+		stamp++;
+		if(stamp == 0) {
+			Arrays.fill(rowStamp, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * Check if a row of a bitboard has no bits set
+	 * 
+	 * @param bits The bitboard
+	 * @param y The row
+	 * @return True if the row is clear
+	 */
+	private boolean isRowClear(long[] bits, int y) {
+		for(int i = y * words; i < (y + 1) * words; i++) {
+			if(bits[i] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write a distance for every tile set in one word of a layer
+	 * 
+	 * @param distance Distances indexed by y*width+x
+	 * @param bits The word of the layer
+	 * @param y Row of the word
+	 * @param word Index of the word in its row
+	 * @param d Distance of the layer
+	 */
+	private void record(int[] distance, long bits, int y, int word, int d) {
+		int base = (y * mapWidth) + (word << 6);
+		while(bits != 0) {
+			distance[base + Long.numberOfTrailingZeros(bits)] = d;
+			bits &= bits - 1;
+		}
+	}
+
+	/**
+	 * Check if a tile is inside the map and walkable
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return True if walkable
+	 */
+	private boolean isWalkable(int x, int y) {
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return false;
+		return getBit(walkable, x, y);
+	}
+
+	/**
+	 * Check a tile's bit in a bitboard
+	 * 
+	 * @param bits The bitboard
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return True if the bit is set
+	 */
+	private boolean getBit(long[] bits, int x, int y) {
+		return (bits[(y * words) + (x >> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Set a tile's bit in a bitboard
+	 * 
+	 * @param bits The bitboard
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 */
+	private void setBit(long[] bits, int x, int y) {
+		bits[(y * words) + (x >> 6)] |= 1L << x;
+	}
+}
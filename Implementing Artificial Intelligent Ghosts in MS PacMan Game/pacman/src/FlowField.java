@@ -0,0 +1,255 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A flow field is a breadth first flood from a single goal tile across the whole map. Every
+ * reachable tile records its distance to the goal and the direction of the step that leads
+ * towards it, so any number of actors heading for the same goal can be routed without running
+ * a search each.
+ * 
+ * When planning is async, the AIManager's workers keep one field rooted at the player and only
+ * rebuild it when the player changes tile. They flood a spare field so the game thread can keep
+ * following the previous one.
+ * 
+ * Teleports are followed too. A teleport costs the same as a step, so the flood still finds the
+ * shortest route.
+ * 
+ * 
+ */
+public class FlowField {
+	// References
+	private Map map;
+	
+	// Field data (indexed like the map's collision layer, see Map.getCollisionIndex())
+	private int width;
+	private int height;
+	private int[] neighbours;
+	private int[] distance;
+	private byte[] nextStep;
+	private int[] stamp;
+	private int generation;
+	private int[] queue;
+	
+	// Teleports by collision index, and the tiles they arrive on so the flood only looks for teleports there
+	private int[] portalEntrance;
+	private int[] portalArrival;
+	private BitSet arrivals;
+	
+	// Goal
+	private int goalX;
+	private int goalY;
+	
+	/**
+	 * Class Constructor
+	 * 
+	 * @param m The map the field is built over
+	 */
+	public FlowField(Map m) {
+		map = m;
+		width = map.getWidth();
+		height = map.getHeight();
+		neighbours = map.getNeighbourOffsets();
+		
+		int cells = map.getCollisionStride() * (height + 2);
+		distance = new int[cells];
+		nextStep = new byte[cells];
+		stamp = new int[cells];
+		queue = new int[cells];
+		generation = 0;
+		goalX = -1;
+		goalY = -1;
+		
+		int numPortals = map.getNumPortals();
+		portalEntrance = new int[numPortals];
+		portalArrival = new int[numPortals];
+		arrivals = new BitSet(cells);
+		for(int i = 0; i < numPortals; i++) {
+			portalEntrance[i] = map.getCollisionIndex(map.getPortalX(i), map.getPortalY(i));
+			portalArrival[i] = map.getCollisionIndex(map.getPortalDestX(i), map.getPortalDestY(i));
+			arrivals.set(portalArrival[i]);
+		}
+	}
+
+	// Getters and Setters
+	
+	/**
+	 * Get the X coordinate of the tile the field currently leads to
+	 * 
+	 * @return Goal X coordinate, -1 if the field has never been built
+	 */
+	public int getGoalX() {
+		return goalX;
+	}
+
+	/**
+	 * Get the Y coordinate of the tile the field currently leads to
+	 * 
+	 * @return Goal Y coordinate, -1 if the field has never been built
+	 */
+	public int getGoalY() {
+		return goalY;
+	}
+
+	/**
+	 * Number of steps from (x,y) to the goal
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return Distance in steps, -1 if the goal can't be reached from (x,y)
+	 */
+	public int getDistance(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height)
+			return -1;
+		
+		int idx = map.getCollisionIndex(x, y);
+		if(stamp[idx] != generation)
+			return -1;
+		return distance[idx];
+	}
+
+	/**
+	 * The direction to move from (x,y) to get one step closer to the goal
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return One of the Actor.MOVE_* constants. MOVE_NONE if (x,y) is the goal or can't reach it, MOVE_TELEPORT to take the teleport on (x,y)
+	 */
+	public int getNextStep(int x, int y) {
+		if(getDistance(x, y) <= 0)
+			return Actor.MOVE_NONE;
+		return nextStep[map.getCollisionIndex(x, y)];
+	}
+
+	// Public Methods
+	
+	/**
+	 * Rebuild the field so it leads to the tile the target actor is standing on. Nothing is done
+	 * if the field already leads there
+	 * 
+	 * @param target The actor the field should lead to
+	 * @return True if the field was rebuilt
+	 */
+	public boolean update(Actor target) {
+		if(target.getX() == goalX && target.getY() == goalY)
+			return false;
+		
+		build(target, target.getX(), target.getY());
+		return true;
+	}
+
+	/**
+	 * Flood the map from (x,y). Stale data from the previous goal is invalidated by moving to a new generation
+	 * 
+	 * @param mover Actor used for Map.canMove() checks
+	 * @param x Goal X coordinate
+	 * @param y Goal Y coordinate
+	 */
+	public void build(Actor mover, int x, int y) {
+		goalX = x;
+		goalY = y;
+		generation++;
+		if(generation == 0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+		
+		if(!map.canMove(mover, x, y))
+			return;
+		
+		int head = 0;
+		int tail = 0;
+		int goal = map.getCollisionIndex(x, y);
+		stamp[goal] = generation;
+		distance[goal] = 0;
+		nextStep[goal] = Actor.MOVE_NONE;
+		queue[tail++] = goal;
+		
+		// Breadth first flood. Each tile we reach from 'current' moves back towards 'current', so the
+		// recorded step is the opposite of the direction we flooded in. The map's border stops the
+		// flood at the edges, so neighbours need no bounds checks
+		while(head < tail) {
+			int current = queue[head++];
+			int d = distance[current] + 1;
+			
+			tail = visit(current + neighbours[0], d, Actor.MOVE_DOWN, tail);
+			tail = visit(current + neighbours[1], d, Actor.MOVE_LEFT, tail);
+			tail = visit(current + neighbours[2], d, Actor.MOVE_UP, tail);
+			tail = visit(current + neighbours[3], d, Actor.MOVE_RIGHT, tail);
+			
+			// Teleports that arrive here, flooded backwards to their entrances
+			if(arrivals.get(current)) {
+				for(int i = 0; i < portalArrival.length; i++) {
+					if(portalArrival[i] == current)
+						tail = visit(portalEntrance[i], d, Actor.MOVE_TELEPORT, tail);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Follow the field from (sx,sy) to the goal and return the steps in the format Ghost.act() consumes
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @return The path including the starting tile, null if the goal can't be reached or we're already there
+	 */
+	public Path getPath(int sx, int sy) {
+		int length = getDistance(sx, sy);
+		if(length <= 0)
+			return null;
+		
+		Path path = new Path(length + 1, false);
+		int x = sx;
+		int y = sy;
+		path.appendStep(x, y);
+		for(int i = 0; i < length; i++) {
+			switch(nextStep[map.getCollisionIndex(x, y)]) {
+				case Actor.MOVE_UP:
+					y--;
+					break;
+				case Actor.MOVE_RIGHT:
+					x++;
+					break;
+				case Actor.MOVE_DOWN:
+					y++;
+					break;
+				case Actor.MOVE_TELEPORT:
+					int portal = map.getPortalAt(x, y);
+					x = map.getPortalDestX(portal);
+					y = map.getPortalDestY(portal);
+					break;
+				default:
+					x--;
+					break;
+			}
+			path.appendStep(x, y);
+		}
+		
+		return path;
+	}
+
+	// Private Methods
+	
+	/**
+	 * Record a tile as reached with the given distance and direction, if it's walkable and not reached yet
+	 * 
+	 * @param idx Collision index of the tile
+	 * @param d Distance from the tile to the goal
+	 * @param dir Direction to move from the tile towards the goal
+	 * @param tail Current tail of the flood queue
+	 * @return The new tail of the flood queue
+	 */
+	private int visit(int idx, int d, int dir, int tail) {
+		if(!map.isWalkableIdx(idx))
+			return tail;
+		
+		if(stamp[idx] == generation)
+			return tail;
+		
+		stamp[idx] = generation;
+		distance[idx] = d;
+		nextStep[idx] = (byte)dir;
+		queue[tail] = idx;
+		return tail + 1;
+	}
+}
@@ -1,10 +1,14 @@
+import java.awt.BufferCapabilities;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Frame;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferStrategy;
+import java.util.ArrayList;
 
 /**
  * The Game Supervisor. This class implements that core program logic, state management, and graphics.
@@ -23,6 +27,22 @@ public class Game extends Canvas {
 	public final int RES_X;
 	public final int RES_Y;
 	private BufferStrategy m_gBuffer;
+	private static final int NUM_BUFFERS = 2;
+	
+	// Timing. Game time advances in fixed ticks, so speeds and timers don't depend on how long frames take to draw
+	public static final int TICK_RATE = 100; // Ticks a second
+	private static final long TICK_NANOS = 1000000000L / TICK_RATE;
+	private static final int MAX_TICKS_PER_FRAME = 10; // Catch up no more than this after a stall, the rest is dropped
+	private float tickAlpha;
+	
+	// Damage tracking, for states that only redraw what changed (see State#tracksDamage()). A back buffer has to be
+	// repaired for this frame's damage and that of the frames shown since it was last drawn to
+	private ArrayList<Rectangle> damage; // Marked since the last frame
+	private Rectangle damageHistory[][]; // Damage of the last damageFrames - 1 frames shown, oldest overwritten first
+	private int damageFrame;
+	private int damageFrames; // 0 if the back buffer can't be relied on to keep anything
+	private boolean damageDrawn;
+	private volatile boolean repaintAll;
 	
 	// State
 	private int stateId;
@@ -75,11 +95,23 @@ public class Game extends Canvas {
 			}
 		});
 		
-		// Setup double buffering
-		setIgnoreRepaint(true); // We'll handle repainting
-		createBufferStrategy(2);
+		// Setup double buffering. Paint messages from the OS only flag a full repaint, see paint()
+		createBufferStrategy(NUM_BUFFERS);
 		m_gBuffer = getBufferStrategy();
 		
+		// Work out how many frames of damage a back buffer misses. Blitted buffers and copied flips keep the last frame,
+		// prior flips keep the frame drawn NUM_BUFFERS frames ago and anything else has to be repainted every frame
+		BufferCapabilities caps = m_gBuffer.getCapabilities();
+		if(!caps.isPageFlipping() || caps.getFlipContents() == BufferCapabilities.FlipContents.COPIED)
+			damageFrames = 1;
+		else if(caps.getFlipContents() == BufferCapabilities.FlipContents.PRIOR)
+			damageFrames = NUM_BUFFERS;
+		else
+			damageFrames = 0;
+		damage = new ArrayList<Rectangle>();
+		damageHistory = new Rectangle[Math.max(damageFrames - 1, 0)][];
+		repaintAll = true;
+		
 		runMainThread = true;
 	}
 	
@@ -103,6 +135,17 @@ public class Game extends Canvas {
 		return (Graphics2D) m_gBuffer.getDrawGraphics();
 	}
 	
+	/**
+	 * Get how far between the last tick and the next the frame being drawn is, for drawing things that move part of
+	 * the way between where they were and where they are
+	 * 
+	 * @return Fraction of a tick, from 0 up to but not including 1
+	 * @see Game#mainThreadLoop()
+	 */
+	public float getTickAlpha() {
+		return tickAlpha;
+	}
+	
 	/**
 	 * Get the name of the map to be loaded in StateGame
 	 * 
@@ -140,6 +183,85 @@ public class Game extends Canvas {
 	
 	// Public Methods
 	
+	/**
+	 * Mark part of the screen as needing a repaint. Only the damaged parts of the screen are repainted for states that
+	 * track damage
+	 * 
+	 * @param x X coordinate on screen
+	 * @param y Y coordinate on screen
+	 * @param w Width
+	 * @param h Height
+	 * @see Game#takeDamage()
+	 */
+	public void markDirty(int x, int y, int w, int h) {
+		damage.add(new Rectangle(x, y, w, h));
+	}
+	
+	/**
+	 * Mark the whole screen as needing a repaint
+	 */
+	public void markAllDirty() {
+		repaintAll = true;
+	}
+	
+	/**
+	 * Get the parts of the back buffer that need repainting and start tracking the next frame's damage. Called by states
+	 * that track damage once the frame's damage is marked, before they draw anything. The parts don't overlap, and each
+	 * should be cleared and drawn with the clip set to it
+	 * 
+	 * @return The parts of the screen to repaint. If there are none the frame isn't shown
+	 * @see State#tracksDamage()
+	 */
+	public Rectangle[] takeDamage() {
+		Rectangle screen = new Rectangle(0, 0, RES_X, RES_Y);
+		if(repaintAll || damageFrames == 0 || m_gBuffer.contentsRestored()) {
+			repaintAll = false;
+			damage.clear();
+			damage.add(screen);
+		}
+		
+		// Add the damage of the frames shown since this buffer was drawn to
+		ArrayList<Rectangle> region = new ArrayList<Rectangle>(damage);
+		for(int i = 0; i < damageHistory.length; i++) {
+			if(damageHistory[i] != null) {
+				for(Rectangle r : damageHistory[i])
+					region.add(r);
+			}
+		}
+		Rectangle parts[] = mergeRectangles(region, screen);
+		if(parts.length == 0)
+			return parts;
+		
+		// The frame will be shown, so the other buffers will need its damage too (a full repaint included)
+		if(damageHistory.length > 0) {
+			damageHistory[damageFrame] = mergeRectangles(damage, screen);
+			damageFrame = (damageFrame + 1) % damageHistory.length;
+		}
+		damage.clear();
+		damageDrawn = true;
+		return parts;
+	}
+	
+	/**
+	 * The OS wants the window repainted (it was uncovered, for instance). Drawing is left to the main thread
+	 * 
+	 * @see java.awt.Canvas#paint(java.awt.Graphics)
+	 */
+	@Override
+	public void paint(Graphics g) {
+		markAllDirty();
+	}
+	
+	/**
+	 * Don't clear the canvas, the main thread draws all of it
+	 * 
+	 * @see java.awt.Canvas#update(java.awt.Graphics)
+	 */
+	@Override
+	public void update(Graphics g) {
+		paint(g);
+	}
+	
 	/**
 	 * Called by other states to safely change currentState. This is done so the currentState's logic can finish
 	 * 
@@ -151,41 +273,121 @@ public class Game extends Canvas {
 	}
 	
 	/**
-	 * The main game loop that handles graphics and game state determination
+	 * The main game loop that handles graphics and game state determination. The state is ticked TICK_RATE times a
+	 * second of real time, and drawn as often as the loop comes round in between
 	 */
 	public void mainThreadLoop() {
+		long lastTime = System.nanoTime();
+		long lag = 0; // Time the ticks are behind the clock
 		while(runMainThread) {
-			// If a state change was requested, execute it now
+			// If a state change was requested, execute it now. Setting up the new state doesn't count as game time
 			if(changeStateRequested) {
 				changeStateRequested = false;
 				changeState(requestedState);
+				lastTime = System.nanoTime();
+				lag = 0;
 				continue;
 			}
 			
-			Graphics2D g = getGraphicsContext();
+			// Tick until game time has caught up with the clock. After a long stall (loading, the window being dragged)
+			// the time that can't be caught up is dropped, so the game slows down rather than jumping ahead
+			long now = System.nanoTime();
+			lag += now - lastTime;
+			lastTime = now;
+			int ticks = 0;
+			while(lag >= TICK_NANOS && !changeStateRequested) {
+				if(ticks == MAX_TICKS_PER_FRAME) {
+					lag %= TICK_NANOS;
+					break;
+				}
+				currentState.tick();
+				lag -= TICK_NANOS;
+				ticks++;
+			}
+			if(changeStateRequested)
+				continue;
+			tickAlpha = (float)lag / TICK_NANOS;
+			
+			// States that don't track damage redraw everything and have nothing between ticks to show, so they're only
+			// drawn once a tick
+			if(ticks == 0 && !currentState.tracksDamage()) {
+				sleep();
+				continue;
+			}
 			
-			// Wipe the screen
-			g.setColor(Color.black);
-			g.fillRect(0, 0, RES_X, RES_Y);
+			Graphics2D g = getGraphicsContext();
 			
-			// Run the logic of the current game state here
-			currentState.logic();
+			// Run the logic of the current game state here. States that track damage clear what they redraw themselves,
+			// and if they redraw nothing there's nothing new to show
+			boolean drawn = true;
+			if(currentState.tracksDamage()) {
+				damageDrawn = false;
+				currentState.logic();
+				drawn = damageDrawn;
+			} else {
+				// Wipe the screen
+				g.setColor(Color.black);
+				g.fillRect(0, 0, RES_X, RES_Y);
+				currentState.logic();
+			}
 			
-			// Show the new buffer
+			// Show the new buffer, repainting everything next time if it was lost
 			g.dispose();
-			m_gBuffer.show();
-			
-			// Syncronize framerate
-			try {
-				Thread.sleep(10); // Rate
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			if(drawn) {
+				m_gBuffer.show();
+				if(m_gBuffer.contentsLost())
+					markAllDirty();
 			}
+			
+			sleep();
 		}
 	}
 	
 	// Private Methods
 	
+	/**
+	 * Give the rest of the program and the OS a turn between frames
+	 */
+	private void sleep() {
+		try {
+			Thread.sleep(1);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Merge overlapping rectangles until none overlap. A shape clip would save repainting the corners the merged
+	 * rectangles add, but Java2D draws shapes slightly differently under a shape clip, so actors would shimmer as the
+	 * damage round them changed
+	 * 
+	 * @param rects The rectangles
+	 * @param bounds Area to crop the rectangles to
+	 * @return The merged rectangles
+	 */
+	private static Rectangle[] mergeRectangles(ArrayList<Rectangle> rects, Rectangle bounds) {
+		ArrayList<Rectangle> merged = new ArrayList<Rectangle>();
+		for(Rectangle r : rects) {
+			Rectangle m = r.intersection(bounds);
+			if(m.isEmpty())
+				continue;
+			
+			// Swallow every rectangle this one overlaps, checking again as it grows
+			boolean grown = true;
+			while(grown) {
+				grown = false;
+				for(int i = merged.size() - 1; i >= 0; i--) {
+					if(merged.get(i).intersects(m)) {
+						m.add(merged.remove(i));
+						grown = true;
+					}
+				}
+			}
+			merged.add(m);
+		}
+		return merged.toArray(new Rectangle[merged.size()]);
+	}
+	
 	/**
 	 * Change the state of the game. Called in mainThreadLogic()
 	 * 
@@ -234,6 +436,9 @@ public class Game extends Canvas {
 				break;
 		}
 		
+		// The new state starts from a clear screen
+		markAllDirty();
+		
 		// Setup input handler and reset()
 		if(currentState != null) {
 			frame.addKeyListener(currentState);
@@ -10,8 +10,8 @@ import java.awt.Graphics2D;
 public class Ghost extends Actor {
 	// Movement
 	private Path path;
+	private Path nextPath; // Path to switch to once 'path' runs out
 	private int nextStepIdx;
-	private boolean needNewPath;
 	
 	// State
 	private boolean trapped;
@@ -29,7 +29,6 @@ public class Ghost extends Actor {
 	 */
 	public Ghost(Color color, Map m, int x, int y, boolean trap) {
 		super(GameObject.OBJECT_GHOST, color, m, x, y);
-		needNewPath = true;
 		inFear = false;
 		trapped = trap;
 		debugDrawPath = false;
@@ -71,15 +70,6 @@ public class Ghost extends Actor {
 		trapped = t;
 	}
 	
-	/**
-	 * Flag that is set to true when the path reaches the last possible step
-	 * 
-	 * @return True if the AIManager needs to assign a new path
-	 */
-	public boolean needsNewPath() {
-		return needNewPath;
-	}
-	
 	/**
 	 * Update the Path object for the ghost to follow'
 	 * 
@@ -89,7 +79,65 @@ public class Ghost extends Actor {
 	public void updatePath(Path p) {
 		nextStepIdx = 1;
 		path = p;
-		needNewPath = false;
+		nextPath = null;
+	}
+	
+	/**
+	 * Queue a path to follow once the current one runs out. It must start on the tile the current path ends on. If the
+	 * ghost has nothing left to follow it switches to the new path straight away, or drops it if it was planned from
+	 * somewhere the ghost no longer is
+	 * 
+	 * @param p Path object, starting at the end of the current path
+	 * @see Ghost#getPathEndX()
+	 */
+	public void queuePath(Path p) {
+		if(getStepsRemaining() > 0) {
+			nextPath = p;
+		} else if(p == null || startsHere(p)) {
+			updatePath(p);
+		}
+	}
+	
+	/**
+	 * Check if a path has been queued to follow after the current one
+	 * 
+	 * @return True if there is a queued path
+	 */
+	public boolean hasQueuedPath() {
+		return nextPath != null;
+	}
+	
+	/**
+	 * Number of steps left on the current path
+	 * 
+	 * @return Steps left, 0 if the ghost has nothing to follow
+	 */
+	public int getStepsRemaining() {
+		if(path == null || nextStepIdx >= path.getLength())
+			return 0;
+		return path.getLength() - nextStepIdx;
+	}
+	
+	/**
+	 * X coordinate of the tile the current path ends on. This is where a path queued now has to start
+	 * 
+	 * @return End X coordinate, the ghost's own X coordinate if it has nothing to follow
+	 */
+	public int getPathEndX() {
+		if(getStepsRemaining() == 0)
+			return positionX;
+		return path.getX(path.getLength() - 1);
+	}
+	
+	/**
+	 * Y coordinate of the tile the current path ends on. This is where a path queued now has to start
+	 * 
+	 * @return End Y coordinate, the ghost's own Y coordinate if it has nothing to follow
+	 */
+	public int getPathEndY() {
+		if(getStepsRemaining() == 0)
+			return positionY;
+		return path.getY(path.getLength() - 1);
 	}
 	
 	/**
@@ -109,9 +157,28 @@ public class Ghost extends Actor {
 	 */
 	@Override
 	public void act() {
+		// Carry straight on along the queued path once the current one runs out
+		if(getStepsRemaining() == 0 && nextPath != null) {
+			if(startsHere(nextPath))
+				updatePath(nextPath);
+			else
+				nextPath = null;
+		}
+		
 		// Move to the next step
 		if(path != null && nextStepIdx < path.getLength()) {
 			
+			// A step that isn't next door is a teleport, which is taken straight away
+			int stepDX = path.getX(nextStepIdx) - positionX;
+			int stepDY = path.getY(nextStepIdx) - positionY;
+			if(Math.abs(stepDX) + Math.abs(stepDY) > 1) {
+				deltaX = 0;
+				deltaY = 0;
+				move(path.getX(nextStepIdx), path.getY(nextStepIdx));
+				nextStepIdx++;
+				return;
+			}
+			
 			// Figure out the direction
 			if((path.getY(nextStepIdx)-positionY) < 0)
 				moveDir = MOVE_UP;
@@ -171,11 +238,19 @@ public class Ghost extends Actor {
 					deltaY = 0;
 					break;
 			}
-		} else {
-			needNewPath = true;
 		}
 	}
 	
+	/**
+	 * Check if a path starts on the tile the ghost is standing on
+	 * 
+	 * @param p Path object
+	 * @return True if the first step is the ghost's tile
+	 */
+	private boolean startsHere(Path p) {
+		return p.getX(0) == positionX && p.getY(0) == positionY;
+	}
+	
 	/**
 	 * Draw the ghost
 	 * 
@@ -184,36 +259,19 @@ public class Ghost extends Actor {
 	@Override
 	public void paint(Graphics2D g) {
 		// Change the position of pacman on screen by the offsets m_fDelta
-		int screenX = (int)((map.CELL_SIZE * positionX) + deltaX);
-		int screenY = (int)((map.CELL_SIZE * positionY) + deltaY);
-			
-		g.setColor(objColor);
-		
-		// Body
-		if(inFear)
-			g.setColor(Color.WHITE);
-		g.fillArc(screenX, screenY, map.CELL_SIZE, map.CELL_SIZE, 0, 360);
-		g.fillRect((int)((map.CELL_SIZE * positionX) + deltaX), (int)((map.CELL_SIZE * positionY)+(map.CELL_SIZE/2) + deltaY), map.CELL_SIZE, map.CELL_SIZE/2);
-		
-		// Eyes
-		if(inFear)
-			g.setColor(Color.BLACK);
-		else
-			g.setColor(Color.WHITE);
-		g.fillOval((int)((map.CELL_SIZE * positionX)+6 + deltaX), (int)((map.CELL_SIZE * positionY)+4 + deltaY), 8, 10);
-		g.fillOval((int)((map.CELL_SIZE * positionX)+16 + deltaX), (int)((map.CELL_SIZE * positionY)+4 + deltaY), 8, 10);
+		int screenX = getScreenX();
+		int screenY = getScreenY();
 		
-		// Eyeballs
-		g.setColor(Color.BLUE);
-		g.fillOval((int)((map.CELL_SIZE * positionX)+8 + deltaX), (int)((map.CELL_SIZE * positionY)+6 + deltaY), 4, 4);
-		g.fillOval((int)((map.CELL_SIZE * positionX)+18 + deltaX), (int)((map.CELL_SIZE * positionY)+6 + deltaY), 4, 4);
+		// Body, eyes and eyeballs, or the frightened ghost
+		SpriteAtlas.get(map.CELL_SIZE).drawGhost(g, objColor, inFear, screenX, screenY);
 		
 		// Debug draw path
 		if(debugDrawPath && path != null) {
 			for(int i = 0; i < path.getLength(); i++) {
-				Path.Step s = path.getStep(i);
+				int sx = path.getX(i);
+				int sy = path.getY(i);
 				g.setColor(objColor);
-				g.drawLine(map.CELL_SIZE * s.getX(), map.CELL_SIZE * s.getY(), (map.CELL_SIZE * s.getX())+map.CELL_SIZE, (map.CELL_SIZE * s.getY())+map.CELL_SIZE);
+				g.drawLine(map.CELL_SIZE * sx, map.CELL_SIZE * sy, (map.CELL_SIZE * sx)+map.CELL_SIZE, (map.CELL_SIZE * sy)+map.CELL_SIZE);
 			}
 		}
 	}
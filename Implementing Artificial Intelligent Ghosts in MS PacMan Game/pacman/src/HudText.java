@@ -0,0 +1,106 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+
+/**
+ * HudText is one line of text on screen (a title, "Score: 120", a menu option) kept laid out as glyphs, so drawing it every
+ * frame doesn't look up the font, build the string or lay the text out again. The glyphs are only laid out again when the
+ * text changes, and setValue() lets a label and a number be shown without building a new string every frame.
+ * 
+ * The glyphs are drawn rather than a picture of them: Java2D already caches the rasterized glyphs, and copying a
+ * transparent image of the line measured slower than drawing them.
+ * 
+ * The fonts the game uses are shared here rather than created each frame.
+ * 
+ * 
+ */
+public class HudText {
+	// Fonts used throughout the game
+	public static final Font TITLE_FONT = new Font("Comic Sans MS", Font.BOLD, 72);
+	public static final Font TEXT_FONT = new Font("Comic Sans MS", Font.BOLD, 24);
+	
+	// How and where the line is drawn. x and y are the start of the baseline, as for Graphics.drawString()
+	private Font font;
+	private Color color;
+	private int x;
+	private int y;
+	
+	// The text shown, and the label and value it was made from when it was set with setValue()
+	private String text;
+	private String label;
+	private long value;
+	
+	// The text laid out for the graphics it was last drawn to. Null until the line is next drawn
+	private GlyphVector glyphs;
+	private FontRenderContext glyphsContext;
+	
+	/**
+	 * Class Constructor
+	 * 
+	 * @param font Font of the text
+	 * @param color Colour of the text
+	 * @param x X coordinate of the start of the baseline
+	 * @param y Y coordinate of the baseline
+	 * @param text The text to show
+	 */
+	public HudText(Font font, Color color, int x, int y, String text) {
+		this.font = font;
+		this.color = color;
+		this.x = x;
+		this.y = y;
+		this.text = text;
+	}
+	
+	/**
+	 * Change the text shown. The line is redrawn the next time it's drawn if the text is different
+	 * 
+	 * @param t The text to show
+	 * @return True if the text changed
+	 */
+	public boolean setText(String t) {
+		if(t.equals(text))
+			return false;
+		text = t;
+		label = null;
+		glyphs = null;
+		return true;
+	}
+	
+	/**
+	 * Show a label followed by a number, such as "Score: " and the score. Nothing is built if they're what is shown already
+	 * 
+	 * @param l The label
+	 * @param v The number after it
+	 * @return True if the text changed
+	 */
+	public boolean setValue(String l, long v) {
+		if(l.equals(label) && v == value)
+			return false;
+		boolean changed = setText(l + v);
+		label = l;
+		value = v;
+		return changed;
+	}
+	
+	/**
+	 * Draw the line
+	 * 
+	 * @param g Graphics to draw to
+	 */
+	public void draw(Graphics2D g) {
+		if(text.length() == 0)
+			return;
+		
+		// The layout depends on the transform and hints of the graphics it's drawn to
+		FontRenderContext frc = g.getFontRenderContext();
+		if(glyphs == null || !frc.equals(glyphsContext)) {
+			glyphs = font.createGlyphVector(frc, text);
+			glyphsContext = frc;
+		}
+		
+		g.setColor(color);
+		g.drawGlyphVector(glyphs, x, y);
+	}
+}
@@ -0,0 +1,452 @@
+import java.util.Arrays;
+
+/**
+ * An incremental path finder for chasing a moving target, based on Moving Target Adaptive A*
+ * (Koenig, Likhachev and Sun). Each search is an ordinary A*, but afterwards every node it expanded
+ * learns its exact distance to the target (the length of the path found less the node's distance
+ * from the start). The learned heuristic is kept from search to search, so later searches run
+ * straight down the previous search tree instead of rediscovering it.
+ * 
+ * The chaser moving needs no repair at all since the heuristic only depends on the target. When the
+ * target moves the learned values are corrected lazily by how far it moved, which keeps them
+ * consistent so every path found is still a shortest one.
+ * 
+ * One instance is kept per chasing ghost. It counts the nodes it expands and, if given a baseline
+ * PathFinder, the nodes a fresh search for the same path would have expanded.
+ * 
+ * 
+ */
+public class IncrementalPathFinder {
+	/** Cost used for nodes that haven't been reached */
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+	/** The number of searches remembered before everything learned is forgotten */
+	private static final int MAX_SEARCHES = 1024;
+	
+	/** Neighbour offsets in the order up, right, down, left */
+	private static final int[] NEIGHBOUR_DX = { 0, 1, 0, -1 };
+	private static final int[] NEIGHBOUR_DY = { -1, 0, 1, 0 };
+	
+	/** The map being searched */
+	private Map map;
+	/** The entity moving along the paths */
+	private Actor mover;
+	/** The width of the map, the stride of the node arrays */
+	private int width;
+	/** The height of the map */
+	private int height;
+	/** The map's offsets between neighbouring tiles of its collision layer */
+	private int[] neighbourOffsets;
+	/** The heuristic learned values start from */
+	private AStarHeuristic heuristic;
+	
+	/** The current search, node state written by an earlier one is brought up to date before it's used */
+	private int counter;
+	/** The target of the current search, -1 before the first one */
+	private int target;
+	/** The search that last initialised each node, 0 for never */
+	private int[] search;
+	/** The search that last expanded each node */
+	private int[] closed;
+	/** The path cost of each node from the start of the search that last initialised it */
+	private int[] cost;
+	/** The heuristic of each node in the search that last initialised it */
+	private int[] heuristicCost;
+	/** The index of the node we reached each node from, -1 for none */
+	private int[] parent;
+	/** The length of the path found by each search, INFINITY if it found none */
+	private int[] pathCost;
+	/** The total distance the target had moved by each search */
+	private int[] deltaH;
+	
+	/** The open list, a binary min-heap of node indices. The best candidate is at slot 0 */
+	private int[] open;
+	/** The number of nodes in the open list */
+	private int openSize;
+	/** The slot each node occupies in the open list, -1 if it isn't in it */
+	private int[] openSlot;
+	
+	/** The path finder run alongside each search to count the expansions of a fresh search */
+	private PathFinder baseline;
+	/** The number of nodes expanded by the last search */
+	private int expandedNodes;
+	/** The number of nodes expanded by every search */
+	private long totalExpansions;
+	/** The number of nodes expanded by the searches the baseline was run alongside */
+	private long comparedExpansions;
+	/** The number of nodes the baseline expanded for the same searches */
+	private long baselineExpansions;
+	/** The number of searches run */
+	private int searches;
+	
+	/**
+	 * Create an incremental path finder
+	 * 
+	 * @param map The map to be searched
+	 * @param mover The entity that will be moving along the paths
+	 */
+	public IncrementalPathFinder(Map map, Actor mover) {
+		this.map = map;
+		this.mover = mover;
+		heuristic = new ManhattanHeuristic();
+		
+		width = map.getWidth();
+		height = map.getHeight();
+		neighbourOffsets = map.getNeighbourOffsets();
+		int nodeCount = width * height;
+		search = new int[nodeCount];
+		closed = new int[nodeCount];
+		cost = new int[nodeCount];
+		heuristicCost = new int[nodeCount];
+		parent = new int[nodeCount];
+		open = new int[nodeCount];
+		openSlot = new int[nodeCount];
+		pathCost = new int[MAX_SEARCHES + 1];
+		deltaH = new int[MAX_SEARCHES + 1];
+		Arrays.fill(openSlot, -1);
+		reset();
+	}
+
+	/**
+	 * Run a fresh search with the given path finder alongside every incremental one, purely to
+	 * count how many nodes it would have expanded
+	 * 
+	 * @param finder The baseline path finder, null to stop comparing
+	 */
+	public void setBaseline(PathFinder finder) {
+		baseline = finder;
+	}
+
+	/**
+	 * Get the number of nodes expanded by the last search
+	 * 
+	 * @return The number of nodes expanded
+	 */
+	public int getLastSearchExpansions() {
+		return expandedNodes;
+	}
+
+	/**
+	 * Get the number of nodes expanded by every search so far
+	 * 
+	 * @return The number of nodes expanded
+	 */
+	public long getTotalExpansions() {
+		return totalExpansions;
+	}
+	
+	/**
+	 * Get the number of nodes expanded by the searches a baseline path finder was run alongside,
+	 * to compare with getBaselineExpansions()
+	 * 
+	 * @return The number of nodes expanded, 0 without a baseline
+	 * @see IncrementalPathFinder#setBaseline(PathFinder)
+	 */
+	public long getComparedExpansions() {
+		return comparedExpansions;
+	}
+
+	/**
+	 * Get the number of nodes the baseline path finder expanded for the same searches
+	 * 
+	 * @return The number of nodes expanded by fresh searches, 0 without a baseline
+	 * @see IncrementalPathFinder#setBaseline(PathFinder)
+	 */
+	public long getBaselineExpansions() {
+		return baselineExpansions;
+	}
+
+	/**
+	 * Get the number of searches run so far
+	 * 
+	 * @return The number of searches
+	 */
+	public int getSearches() {
+		return searches;
+	}
+
+	/**
+	 * Find a path from the chaser at (sx,sy) to the target at (tx,ty), reusing what earlier
+	 * searches learned about the distances to the target
+	 * 
+	 * @param sx The x coordinate of the chaser
+	 * @param sy The y coordinate of the chaser
+	 * @param tx The x coordinate of the target
+	 * @param ty The y coordinate of the target
+	 * @return The path found from start to end, or null if no path can be found.
+	 */
+	public Path findPath(int sx, int sy, int tx, int ty) {
+		expandedNodes = 0;
+		if (!isWalkable(tx, ty) || !isWalkable(sx, sy)) {
+			return null;
+		}
+		
+		int start = (sy * width) + sx;
+		int goal = (ty * width) + tx;
+		nextSearch(goal);
+		
+		// empty whatever the last search left in the open list
+		for (int i = 0; i < openSize; i++) {
+			openSlot[open[i]] = -1;
+		}
+		openSize = 0;
+		
+		initializeNode(start);
+		cost[start] = 0;
+		parent[start] = -1;
+		addToOpen(start);
+		
+		while (openSize != 0) {
+			int current = open[0];
+			if (current == goal) {
+				break;
+			}
+			removeFromOpen(current);
+			closed[current] = counter;
+			expandedNodes++;
+			
+			int cx = current % width;
+			int cy = current / width;
+			int cell = map.getCollisionIndex(cx, cy);
+			for (int n = 0; n < 4; n++) {
+				// the map's border keeps the collision lookup in bounds, and a walkable neighbour is on the map
+				if (map.isWalkableIdx(cell + neighbourOffsets[n])) {
+					relax(current, current + (NEIGHBOUR_DY[n] * width) + NEIGHBOUR_DX[n], cost[current] + 1);
+				}
+			}
+			
+			// a teleport on this tile is one more neighbour, wherever it leads
+			int portal = map.getPortalAt(cx, cy);
+			if (portal >= 0) {
+				int x = map.getPortalDestX(portal);
+				int y = map.getPortalDestY(portal);
+				if (isWalkable(x, y)) {
+					relax(current, (y * width) + x, cost[current] + Map.PORTAL_COST);
+				}
+			}
+		}
+		
+		totalExpansions += expandedNodes;
+		searches++;
+		if (baseline != null) {
+			baseline.findPath(mover, sx, sy, tx, ty);
+			comparedExpansions += expandedNodes;
+			baselineExpansions += baseline.getLastSearchExpansions();
+		}
+		
+		// nothing is learned from a search that didn't reach the target
+		if ((search[goal] != counter) || (cost[goal] >= INFINITY)) {
+			pathCost[counter] = INFINITY;
+			return null;
+		}
+		pathCost[counter] = cost[goal];
+		if (start == goal) {
+			return null;
+		}
+		
+		Path path = new Path(cost[goal] + 1, true);
+		int node = goal;
+		while (node != -1) {
+			path.prependStep(node % width, node / width);
+			node = parent[node];
+		}
+		
+		return path;
+	}
+
+	/**
+	 * Start a new search towards the given target. If the target has moved, its learned distance
+	 * from the old target is the most any learned heuristic can now overestimate by
+	 * 
+	 * @param goal The index of the new target node
+	 */
+	private void nextSearch(int goal) {
+		if (counter == MAX_SEARCHES) {
+			reset();
+		}
+		
+		int moved = 0;
+		if ((target >= 0) && (goal != target)) {
+			moved = getHeuristic(goal);
+		}
+		
+		deltaH[counter + 1] = deltaH[counter] + moved;
+		counter++;
+		target = goal;
+	}
+
+	/**
+	 * Lower the cost of a neighbour if it's cheaper to reach from the current node
+	 * 
+	 * @param current The index of the node being expanded
+	 * @param neighbour The index of the neighbour
+	 * @param nextStepCost The cost of reaching the neighbour through the current node
+	 */
+	private void relax(int current, int neighbour, int nextStepCost) {
+		initializeNode(neighbour);
+		if (nextStepCost < cost[neighbour]) {
+			cost[neighbour] = nextStepCost;
+			parent[neighbour] = current;
+			if (openSlot[neighbour] >= 0) {
+				siftUp(openSlot[neighbour]);
+			} else {
+				addToOpen(neighbour);
+			}
+		}
+	}
+
+	/**
+	 * Forget everything learned, the next search starts from the plain Manhattan heuristic
+	 */
+	private void reset() {
+		Arrays.fill(search, 0);
+		Arrays.fill(closed, 0);
+		counter = 0;
+		target = -1;
+		deltaH[0] = 0;
+		pathCost[0] = INFINITY;
+	}
+
+	/**
+	 * Bring a node's state up to date for the current search
+	 * 
+	 * @param node The index of the node
+	 */
+	private void initializeNode(int node) {
+		if (search[node] == counter) {
+			return;
+		}
+		
+		heuristicCost[node] = getHeuristic(node);
+		cost[node] = INFINITY;
+		search[node] = counter;
+	}
+
+	/**
+	 * Get the best known lower bound on a node's distance to the current target. A node expanded by
+	 * a finished search knows its exact distance to that search's target, less how far the target
+	 * has moved since. It's never worse than the Manhattan distance, allowing for teleports
+	 * 
+	 * @param node The index of the node
+	 * @return The heuristic cost
+	 */
+	private int getHeuristic(int node) {
+		int estimate = (int) heuristic.getCost(map, mover, node % width, node / width, target % width, target / width);
+		int last = search[node];
+		if (last == 0) {
+			return estimate;
+		}
+		
+		int learned = heuristicCost[node];
+		if ((pathCost[last] < INFINITY) && (closed[node] == last) && (cost[node] + learned < pathCost[last])) {
+			learned = pathCost[last] - cost[node];
+		}
+		learned -= deltaH[counter] - deltaH[last];
+		
+		return Math.max(estimate, learned);
+	}
+
+	/**
+	 * Check if a location is inside the map and can be moved through
+	 * 
+	 * @param x The x coordinate
+	 * @param y The y coordinate
+	 * @return True if the location is walkable
+	 */
+	private boolean isWalkable(int x, int y) {
+		return (x >= 0) && (y >= 0) && (x < width) && (y < height) && map.canMove(mover, x, y);
+	}
+
+	/**
+	 * Add a node to the open list
+	 * 
+	 * @param node The index of the node
+	 */
+	private void addToOpen(int node) {
+		open[openSize] = node;
+		openSlot[node] = openSize;
+		openSize++;
+		siftUp(openSize - 1);
+	}
+
+	/**
+	 * Remove a node from the open list
+	 * 
+	 * @param node The index of the node
+	 */
+	private void removeFromOpen(int node) {
+		int slot = openSlot[node];
+		openSlot[node] = -1;
+		openSize--;
+		if (slot == openSize) {
+			return;
+		}
+		
+		int last = open[openSize];
+		open[slot] = last;
+		openSlot[last] = slot;
+		siftDown(slot);
+		siftUp(openSlot[last]);
+	}
+
+	/**
+	 * Check if one node should be searched before another - lower total cost first,
+	 * then the one closer to the target
+	 * 
+	 * @param a The index of the first node
+	 * @param b The index of the second node
+	 * @return True if a should be searched first
+	 */
+	private boolean isBetter(int a, int b) {
+		int fa = cost[a] + heuristicCost[a];
+		int fb = cost[b] + heuristicCost[b];
+		
+		if (fa != fb) {
+			return fa < fb;
+		}
+		return heuristicCost[a] < heuristicCost[b];
+	}
+
+	/**
+	 * Move the node at the given open list slot towards the root until its parent is no worse
+	 * 
+	 * @param slot The slot of the node to move
+	 */
+	private void siftUp(int slot) {
+		int node = open[slot];
+		while (slot > 0) {
+			int up = (slot - 1) >> 1;
+			if (!isBetter(node, open[up])) {
+				break;
+			}
+			open[slot] = open[up];
+			openSlot[open[slot]] = slot;
+			slot = up;
+		}
+		open[slot] = node;
+		openSlot[node] = slot;
+	}
+
+	/**
+	 * Move the node at the given open list slot towards the leaves until no child is better
+	 * 
+	 * @param slot The slot of the node to move
+	 */
+	private void siftDown(int slot) {
+		int node = open[slot];
+		int half = openSize >> 1;
+		while (slot < half) {
+			int child = (slot << 1) + 1;
+			if ((child + 1 < openSize) && isBetter(open[child + 1], open[child])) {
+				child++;
+			}
+			if (!isBetter(open[child], node)) {
+				break;
+			}
+			open[slot] = open[child];
+			openSlot[open[slot]] = slot;
+			slot = child;
+		}
+		open[slot] = node;
+		openSlot[node] = slot;
+	}
+}
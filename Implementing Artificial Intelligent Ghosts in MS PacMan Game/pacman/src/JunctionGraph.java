@@ -0,0 +1,718 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A junction graph is a compiled form of a map's collision layer. Pacman mazes are mostly one tile wide
+ * corridors, so every walkable tile that isn't simply part of a corridor (intersections and dead ends) becomes a
+ * node, and the corridors between them become weighted edges. Searches run over the nodes and are only expanded
+ * back into tile by tile steps for the returned Path.
+ * 
+ * Both ends of every teleport are junctions, and each teleport is a one way edge with no interior tiles from its
+ * entrance to its destination.
+ * 
+ * Tiles are indexed y*width+x throughout.
+ * 
+ * 
+ */
+public class JunctionGraph {
+	// Neighbour offsets in the order up, right, down, left
+	private static final int[] NEIGHBOUR_DX = { 0, 1, 0, -1 };
+	private static final int[] NEIGHBOUR_DY = { -1, 0, 1, 0 };
+	
+	// Map parameters
+	private Map map;
+	private int mapWidth;
+	private int mapHeight;
+	private boolean[] walkable;
+	private boolean[] portalEnd; // True for both ends of every teleport
+	
+	// Junctions (graph nodes)
+	private int numJunctions;
+	private int[] junctionTile;
+	private int[] junctionOf; // Junction index of every tile, -1 if it isn't one
+	private int[][] junctionEdges; // Corridors leaving each junction, encoded as corridor*2 + direction (0 = A to B, 1 = B to A)
+	
+	// Corridors (graph edges). A corridor runs from junction A to junction B through its interior tiles
+	private int numCorridors;
+	private int[] corridorA;
+	private int[] corridorB;
+	private int[][] corridorTiles; // Interior tiles in order from A to B
+	private int[] corridorCost; // Cost of following the corridor from one junction to the other
+	private int numPortalCorridors; // Teleports, the last corridors. They only go from A to B
+	private int[] corridorOf; // Corridor of every interior tile, -1 for junctions and walls
+	private int[] offsetOf; // Position of every interior tile in its corridor
+	
+	// Search state, stamped with the search generation so nothing needs clearing between searches
+	private int generation;
+	private int[] stamp;
+	private int[] cost;
+	private int[] parentEdge; // Edge we arrived through, -1 for the start seeds
+	private int[] seedSide; // For start seeds, the corridor end (0 = A, 1 = B) we left the start tile through
+	private boolean[] closed;
+	private int[] heap;
+	private int[] heapSlot;
+	private int heapSize;
+	private int[] estimate;
+	private int[] route;
+	private int expandedNodes;
+	
+	// Ends of the start and target corridors for the current search
+	private int[] seedJunction = new int[2];
+	private int[] seedCost = new int[2];
+	private int[] exitJunction = new int[2];
+	private int[] exitCost = new int[2];
+	private int exits;
+	private AStarHeuristic[] exitHeuristic = { new ManhattanHeuristic(), new ManhattanHeuristic() }; // One per exit, each caches its portal costs for one target
+	
+	// The search in progress. Searches can be run a few junctions at a time, see continueSearch()
+	private boolean searching;
+	private int searchStart;
+	private int searchTarget;
+	private int best; // Length of the best route to the target found so far
+	private int bestJunction;
+	private int bestExit;
+	private boolean direct; // True if the best route stays on the corridor the start and target share
+	private Path result;
+	
+	/**
+	 * Class Constructor. Compiles the collision layer of the map into a junction graph
+	 * 
+	 * @param m The map to compile
+	 */
+	public JunctionGraph(Map m) {
+		map = m;
+		mapWidth = m.getWidth();
+		mapHeight = m.getHeight();
+		
+		int tiles = mapWidth * mapHeight;
+		walkable = new boolean[tiles];
+		for(int y = 0; y < mapHeight; y++) {
+			int row = m.getCollisionIndex(0, y);
+			for(int x = 0; x < mapWidth; x++)
+				walkable[(y * mapWidth) + x] = m.isWalkableIdx(row + x);
+		}
+		portalEnd = new boolean[tiles];
+		for(int i = 0; i < m.getNumPortals(); i++) {
+			portalEnd[(m.getPortalY(i) * mapWidth) + m.getPortalX(i)] = true;
+			portalEnd[(m.getPortalDestY(i) * mapWidth) + m.getPortalDestX(i)] = true;
+		}
+		
+		compile();
+		
+		// Search state
+		stamp = new int[numJunctions];
+		cost = new int[numJunctions];
+		parentEdge = new int[numJunctions];
+		seedSide = new int[numJunctions];
+		closed = new boolean[numJunctions];
+		heap = new int[numJunctions];
+		heapSlot = new int[numJunctions];
+		estimate = new int[numJunctions];
+		route = new int[numJunctions];
+		generation = 0;
+	}
+
+	// Getters and Setters
+	
+	/**
+	 * Number of nodes (intersections and dead ends) in the graph
+	 * 
+	 * @return Number of junctions
+	 */
+	public int getNumJunctions() {
+		return numJunctions;
+	}
+
+	/**
+	 * Number of edges (corridors) in the graph
+	 * 
+	 * @return Number of corridors
+	 */
+	public int getNumCorridors() {
+		return numCorridors;
+	}
+
+	/**
+	 * Number of junctions expanded by the last search
+	 * 
+	 * @return Number of junctions expanded
+	 */
+	public int getLastSearchExpansions() {
+		return expandedNodes;
+	}
+
+	/**
+	 * Check if the search started by startSearch() has finished
+	 * 
+	 * @return True if there is nothing left to expand
+	 */
+	public boolean isSearchDone() {
+		return !searching;
+	}
+
+	/**
+	 * The path found by the last search
+	 * 
+	 * @return The path including the starting tile, null if the search isn't done, there is no path or we're already there
+	 */
+	public Path getSearchResult() {
+		return searching ? null : result;
+	}
+
+	// Public Methods
+	
+	/**
+	 * Find the shortest path from (sx,sy) to (tx,ty). The search runs over junctions and the result is expanded
+	 * back into single tile steps
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return The path including the starting tile, null if there is no path or we're already there
+	 */
+	public Path findPath(int sx, int sy, int tx, int ty) {
+		startSearch(sx, sy, tx, ty);
+		continueSearch(Integer.MAX_VALUE);
+		return result;
+	}
+
+	/**
+	 * Start a search from (sx,sy) to (tx,ty) without expanding anything yet. Any search still in progress is abandoned
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @see JunctionGraph#continueSearch(int)
+	 */
+	public void startSearch(int sx, int sy, int tx, int ty) {
+		expandedNodes = 0;
+		searching = false;
+		result = null;
+		if(!isWalkable(sx, sy) || !isWalkable(tx, ty))
+			return;
+		
+		searchStart = (sy * mapWidth) + sx;
+		searchTarget = (ty * mapWidth) + tx;
+		if(searchStart == searchTarget)
+			return;
+		
+		// Cost of leaving the target's corridor through either end (only one end if the target is a junction)
+		exits = getCorridorEnds(searchTarget, exitJunction, exitCost);
+		
+		// Start and target on the same corridor can be joined directly, but going round through the junctions may still be shorter
+		best = Integer.MAX_VALUE;
+		bestJunction = -1;
+		bestExit = -1;
+		direct = false;
+		if(corridorOf[searchStart] >= 0 && corridorOf[searchStart] == corridorOf[searchTarget]) {
+			best = Math.abs(offsetOf[searchStart] - offsetOf[searchTarget]);
+			direct = true;
+		}
+		
+		// Seed the search with the ends of the start's corridor. A loop corridor has the same junction at both ends
+		nextGeneration();
+		heapSize = 0;
+		int seeds = getCorridorEnds(searchStart, seedJunction, seedCost);
+		for(int i = 0; i < seeds; i++) {
+			int j = seedJunction[i];
+			touch(j);
+			if(seedCost[i] < cost[j]) {
+				cost[j] = seedCost[i];
+				parentEdge[j] = -1;
+				seedSide[j] = i;
+				if(heapSlot[j] >= 0)
+					siftUp(heapSlot[j]);
+				else
+					push(j);
+			}
+		}
+		searching = true;
+	}
+
+	/**
+	 * Expand at most maxNodes more junctions of the search in progress. The path is built as soon as the search
+	 * runs out of junctions worth expanding, even if that takes no expansions at all
+	 * 
+	 * @param maxNodes The most junctions to expand in this call
+	 * @return The number of junctions expanded
+	 */
+	public int continueSearch(int maxNodes) {
+		int expanded = 0;
+		
+		// A* across the junctions. Stop once nothing left in the open list can beat the best route to the target
+		while(searching) {
+			if(heapSize == 0 || cost[heap[0]] + estimate[heap[0]] >= best) {
+				finishSearch();
+				break;
+			}
+			if(expanded == maxNodes)
+				break;
+			
+			int current = heap[0];
+			pop();
+			closed[current] = true;
+			expandedNodes++;
+			expanded++;
+			
+			for(int i = 0; i < exits; i++) {
+				if(exitJunction[i] == current && cost[current] + exitCost[i] < best) {
+					best = cost[current] + exitCost[i];
+					bestJunction = current;
+					bestExit = i;
+					direct = false;
+				}
+			}
+			
+			int[] edges = junctionEdges[current];
+			for(int i = 0; i < edges.length; i++) {
+				int c = edges[i] >> 1;
+				int next = ((edges[i] & 1) == 0) ? corridorB[c] : corridorA[c];
+				int nextCost = cost[current] + corridorCost[c];
+				
+				touch(next);
+				if(closed[next] || nextCost >= cost[next])
+					continue;
+				
+				cost[next] = nextCost;
+				parentEdge[next] = edges[i];
+				if(heapSlot[next] >= 0)
+					siftUp(heapSlot[next]);
+				else
+					push(next);
+			}
+		}
+		
+		return expanded;
+	}
+
+	// Private Methods
+	
+	/**
+	 * End the search in progress and expand the best route found back into tiles
+	 */
+	private void finishSearch() {
+		searching = false;
+		if(best == Integer.MAX_VALUE)
+			return;
+		
+		int start = searchStart;
+		int target = searchTarget;
+		Path path = new Path(best + 1, false);
+		path.appendStep(start % mapWidth, start / mapWidth);
+		result = path;
+		if(direct) {
+			appendRun(path, corridorTiles[corridorOf[start]], offsetOf[start], offsetOf[target]);
+			return;
+		}
+		
+		// Junctions from the last one back to the first
+		int routeLength = 0;
+		for(int j = bestJunction; j >= 0; ) {
+			route[routeLength++] = j;
+			if(parentEdge[j] < 0)
+				break;
+			int c = parentEdge[j] >> 1;
+			j = ((parentEdge[j] & 1) == 0) ? corridorA[c] : corridorB[c];
+		}
+		
+		// From the start tile to the first junction
+		int first = route[routeLength - 1];
+		if(corridorOf[start] >= 0) {
+			int[] tiles = corridorTiles[corridorOf[start]];
+			if(seedSide[first] == 0)
+				appendRun(path, tiles, offsetOf[start], -1);
+			else
+				appendRun(path, tiles, offsetOf[start], tiles.length);
+		}
+		if(junctionTile[first] != start)
+			appendTile(path, junctionTile[first]);
+		
+		// Junction to junction along the corridors we took
+		for(int i = routeLength - 2; i >= 0; i--) {
+			int edge = parentEdge[route[i]];
+			int[] tiles = corridorTiles[edge >> 1];
+			if((edge & 1) == 0)
+				appendRun(path, tiles, -1, tiles.length);
+			else
+				appendRun(path, tiles, tiles.length, -1);
+			appendTile(path, junctionTile[route[i]]);
+		}
+		
+		// From the last junction to the target tile
+		if(corridorOf[target] >= 0) {
+			int[] tiles = corridorTiles[corridorOf[target]];
+			if(bestExit == 0)
+				appendRun(path, tiles, -1, offsetOf[target]);
+			else
+				appendRun(path, tiles, tiles.length, offsetOf[target]);
+		}
+	}
+
+	/**
+	 * Split the walkable tiles into junctions and corridors
+	 */
+	private void compile() {
+		int tiles = mapWidth * mapHeight;
+		junctionOf = new int[tiles];
+		corridorOf = new int[tiles];
+		offsetOf = new int[tiles];
+		Arrays.fill(junctionOf, -1);
+		Arrays.fill(corridorOf, -1);
+		
+		// Anything that isn't a plain two way corridor tile is a junction, and so are the ends of teleports
+		ArrayList<Integer> junctions = new ArrayList<Integer>();
+		for(int i = 0; i < tiles; i++) {
+			if(walkable[i] && (getDegree(i) != 2 || portalEnd[i])) {
+				junctionOf[i] = junctions.size();
+				junctions.add(i);
+			}
+		}
+		
+		ArrayList<int[]> corridors = new ArrayList<int[]>();
+		ArrayList<Integer> ends = new ArrayList<Integer>();
+		for(int j = 0; j < junctions.size(); j++)
+			walkCorridors(junctions.get(j), corridors, ends);
+		
+		// Loops with no junction on them at all. Promote one tile of each to a junction
+		for(int i = 0; i < tiles; i++) {
+			if(walkable[i] && junctionOf[i] < 0 && corridorOf[i] < 0) {
+				junctionOf[i] = junctions.size();
+				junctions.add(i);
+				walkCorridors(i, corridors, ends);
+			}
+		}
+		
+		// Teleports go last so they're easy to tell apart
+		int walkedCorridors = corridors.size();
+		for(int i = 0; i < map.getNumPortals(); i++) {
+			corridors.add(new int[0]);
+			ends.add(junctionOf[(map.getPortalY(i) * mapWidth) + map.getPortalX(i)]);
+			ends.add(junctionOf[(map.getPortalDestY(i) * mapWidth) + map.getPortalDestX(i)]);
+		}
+		numPortalCorridors = corridors.size() - walkedCorridors;
+		
+		// Flatten into arrays
+		numJunctions = junctions.size();
+		junctionTile = new int[numJunctions];
+		for(int j = 0; j < numJunctions; j++)
+			junctionTile[j] = junctions.get(j);
+		
+		numCorridors = corridors.size();
+		corridorA = new int[numCorridors];
+		corridorB = new int[numCorridors];
+		corridorTiles = new int[numCorridors][];
+		corridorCost = new int[numCorridors];
+		int[] edgeCount = new int[numJunctions];
+		for(int c = 0; c < numCorridors; c++) {
+			corridorTiles[c] = corridors.get(c);
+			corridorA[c] = ends.get(c * 2);
+			corridorB[c] = ends.get((c * 2) + 1);
+			edgeCount[corridorA[c]]++;
+			if(isPortalCorridor(c)) {
+				corridorCost[c] = Map.PORTAL_COST;
+			} else {
+				corridorCost[c] = corridorTiles[c].length + 1;
+				edgeCount[corridorB[c]]++;
+			}
+		}
+		
+		junctionEdges = new int[numJunctions][];
+		for(int j = 0; j < numJunctions; j++)
+			junctionEdges[j] = new int[edgeCount[j]];
+		Arrays.fill(edgeCount, 0);
+		for(int c = 0; c < numCorridors; c++) {
+			junctionEdges[corridorA[c]][edgeCount[corridorA[c]]++] = c * 2;
+			if(!isPortalCorridor(c))
+				junctionEdges[corridorB[c]][edgeCount[corridorB[c]]++] = (c * 2) + 1;
+		}
+	}
+
+	/**
+	 * Check if a corridor is a teleport rather than a walk
+	 * 
+	 * @param c Corridor index
+	 * @return True if the corridor is a teleport, which can only be taken from A to B
+	 */
+	private boolean isPortalCorridor(int c) {
+		return c >= numCorridors - numPortalCorridors;
+	}
+
+	/**
+	 * Follow every corridor leaving a junction that hasn't been followed from its other end already
+	 * 
+	 * @param from Tile of the junction
+	 * @param corridors Interior tiles of every corridor found so far
+	 * @param ends Junction tile pairs (A, B) of every corridor found so far
+	 */
+	private void walkCorridors(int from, ArrayList<int[]> corridors, ArrayList<Integer> ends) {
+		int fx = from % mapWidth;
+		int fy = from / mapWidth;
+		
+		for(int n = 0; n < 4; n++) {
+			int first = getTile(fx + NEIGHBOUR_DX[n], fy + NEIGHBOUR_DY[n]);
+			if(first < 0)
+				continue;
+			
+			// Junctions right next to each other. Only record the pair once
+			if(junctionOf[first] >= 0) {
+				if(first > from) {
+					corridors.add(new int[0]);
+					ends.add(junctionOf[from]);
+					ends.add(junctionOf[first]);
+				}
+				continue;
+			}
+			
+			// Already walked from the other end
+			if(corridorOf[first] >= 0)
+				continue;
+			
+			int corridor = corridors.size();
+			ArrayList<Integer> interior = new ArrayList<Integer>();
+			int prev = from;
+			int current = first;
+			while(junctionOf[current] < 0) {
+				corridorOf[current] = corridor;
+				offsetOf[current] = interior.size();
+				interior.add(current);
+				
+				// A corridor tile has exactly two walkable neighbours, carry on through the one we didn't come from
+				int cx = current % mapWidth;
+				int cy = current / mapWidth;
+				int next = -1;
+				for(int k = 0; k < 4; k++) {
+					int t = getTile(cx + NEIGHBOUR_DX[k], cy + NEIGHBOUR_DY[k]);
+					if(t >= 0 && t != prev) {
+						next = t;
+						break;
+					}
+				}
+				prev = current;
+				current = next;
+			}
+			
+			int[] tiles = new int[interior.size()];
+			for(int i = 0; i < tiles.length; i++)
+				tiles[i] = interior.get(i);
+			corridors.add(tiles);
+			ends.add(junctionOf[from]);
+			ends.add(junctionOf[current]);
+		}
+	}
+
+	/**
+	 * Number of walkable neighbours of a tile
+	 * 
+	 * @param tile Tile index
+	 * @return Number of walkable neighbours (0-4)
+	 */
+	private int getDegree(int tile) {
+		int x = tile % mapWidth;
+		int y = tile / mapWidth;
+		int degree = 0;
+		for(int n = 0; n < 4; n++) {
+			if(getTile(x + NEIGHBOUR_DX[n], y + NEIGHBOUR_DY[n]) >= 0)
+				degree++;
+		}
+		return degree;
+	}
+
+	/**
+	 * Index of a walkable tile
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return The tile index, -1 if (x,y) is out of bounds or not walkable
+	 */
+	private int getTile(int x, int y) {
+		if(!isWalkable(x, y))
+			return -1;
+		return (y * mapWidth) + x;
+	}
+
+	/**
+	 * Check if a tile can be walked on
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return True if walkable
+	 */
+	private boolean isWalkable(int x, int y) {
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return false;
+		return walkable[(y * mapWidth) + x];
+	}
+
+	/**
+	 * The junctions at either end of the corridor a tile sits on, and the cost of getting from the tile to each
+	 * 
+	 * @param tile Tile index
+	 * @param junction Receives the junctions
+	 * @param distance Receives the costs
+	 * @return Number of ends filled in (1 if the tile is a junction itself)
+	 */
+	private int getCorridorEnds(int tile, int[] junction, int[] distance) {
+		if(junctionOf[tile] >= 0) {
+			junction[0] = junctionOf[tile];
+			distance[0] = 0;
+			return 1;
+		}
+		
+		int c = corridorOf[tile];
+		junction[0] = corridorA[c];
+		distance[0] = offsetOf[tile] + 1;
+		junction[1] = corridorB[c];
+		distance[1] = corridorTiles[c].length - offsetOf[tile];
+		return 2;
+	}
+
+	/**
+	 * Append the tiles of a corridor strictly between two offsets, walking from one to the other
+	 * 
+	 * @param path The path to append to
+	 * @param tiles Interior tiles of the corridor
+	 * @param from Offset to start after (-1 for end A, tiles.length for end B)
+	 * @param to Offset to finish on (-1 for end A, tiles.length for end B, which aren't appended)
+	 */
+	private void appendRun(Path path, int[] tiles, int from, int to) {
+		int step = (to > from) ? 1 : -1;
+		for(int i = from + step; i != to + step; i += step) {
+			if(i < 0 || i >= tiles.length)
+				break;
+			appendTile(path, tiles[i]);
+		}
+	}
+
+	/**
+	 * Append a single tile to a path
+	 * 
+	 * @param path The path to append to
+	 * @param tile Tile index
+	 */
+	private void appendTile(Path path, int tile) {
+		path.appendStep(tile % mapWidth, tile / mapWidth);
+	}
+
+	/**
+	 * Start a new search generation, making the state of every junction stale
+	 */
+	private void nextGeneration() {
+		generation++;
+		if(generation == 0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+	}
+
+	/**
+	 * Reset the state of a junction if it's left over from a previous search
+	 * 
+	 * @param j Junction index
+	 */
+	private void touch(int j) {
+		if(stamp[j] == generation)
+			return;
+		
+		stamp[j] = generation;
+		cost[j] = Integer.MAX_VALUE;
+		closed[j] = false;
+		heapSlot[j] = -1;
+		
+		// Lower bound on the rest of the trip, through whichever end of the target's corridor is closer. Corridors
+		// are never shorter than the Manhattan distance between their ends, or the shortcut through a teleport
+		int x = junctionTile[j] % mapWidth;
+		int y = junctionTile[j] / mapWidth;
+		int h = Integer.MAX_VALUE;
+		for(int i = 0; i < exits; i++) {
+			int e = junctionTile[exitJunction[i]];
+			int d = (int) exitHeuristic[i].getCost(map, null, x, y, e % mapWidth, e / mapWidth) + exitCost[i];
+			h = Math.min(h, d);
+		}
+		estimate[j] = h;
+	}
+
+	/**
+	 * Check if junction a should be expanded before junction b
+	 * 
+	 * @param a First junction index
+	 * @param b Second junction index
+	 * @return True if a is the better candidate
+	 */
+	private boolean isBetter(int a, int b) {
+		int fa = cost[a] + estimate[a];
+		int fb = cost[b] + estimate[b];
+		if(fa != fb)
+			return fa < fb;
+		return estimate[a] < estimate[b];
+	}
+
+	/**
+	 * Add a junction to the open list
+	 * 
+	 * @param j Junction index
+	 */
+	private void push(int j) {
+		heap[heapSize] = j;
+		heapSlot[j] = heapSize;
+		heapSize++;
+		siftUp(heapSize - 1);
+	}
+
+	/**
+	 * Remove the best junction from the open list
+	 */
+	private void pop() {
+		int top = heap[0];
+		heapSlot[top] = -1;
+		heapSize--;
+		if(heapSize == 0)
+			return;
+		
+		heap[0] = heap[heapSize];
+		heapSlot[heap[0]] = 0;
+		siftDown(0);
+	}
+
+	/**
+	 * Move the junction at an open list slot towards the root until its parent is no worse
+	 * 
+	 * @param slot Open list slot
+	 */
+	private void siftUp(int slot) {
+		int j = heap[slot];
+		while(slot > 0) {
+			int up = (slot - 1) >> 1;
+			if(!isBetter(j, heap[up]))
+				break;
+			heap[slot] = heap[up];
+			heapSlot[heap[slot]] = slot;
+			slot = up;
+		}
+		heap[slot] = j;
+		heapSlot[j] = slot;
+	}
+
+	/**
+	 * Move the junction at an open list slot towards the leaves until no child is better
+	 * 
+	 * @param slot Open list slot
+	 */
+	private void siftDown(int slot) {
+		int j = heap[slot];
+		int half = heapSize >> 1;
+		while(slot < half) {
+			int child = (slot << 1) + 1;
+			if(child + 1 < heapSize && isBetter(heap[child + 1], heap[child]))
+				child++;
+			if(!isBetter(heap[child], j))
+				break;
+			heap[slot] = heap[child];
+			heapSlot[heap[slot]] = slot;
+			slot = child;
+		}
+		heap[slot] = j;
+		heapSlot[j] = slot;
+	}
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+
+/**
+ * A heuristic using landmarks (the ALT technique of Goldberg and Harrelson). A few walkable
+ * tiles are picked as landmarks and the true distance from and to every landmark is worked
+ * out once, when the heuristic is created. By the triangle inequality the distance between
+ * two tiles is at least the difference of their distances to any landmark, and the best of
+ * those differences is used as the estimate.
+ * 
+ * On maze maps this follows the walls, where the straight line distance can be out by
+ * most of the maze. Out in the open the Manhattan distance can be the better bound, so
+ * the estimate never drops below it. The distances are measured in up, down, left and
+ * right steps and teleports, so the heuristic is admissible for paths without diagonal
+ * movement on maps where no move costs less than 1. It describes the walls the map had
+ * when it was created, other maps only get the Manhattan estimate.
+ * 
+ * 
+ */
+public class LandmarkHeuristic extends ManhattanHeuristic {
+	/** The default number of landmarks */
+	public static final int DEFAULT_LANDMARKS = 8;
+	
+	/** Neighbour offsets in the order up, right, down, left */
+	private static final int[] NEIGHBOUR_DX = { 0, 1, 0, -1 };
+	private static final int[] NEIGHBOUR_DY = { -1, 0, 1, 0 };
+	
+	/** The map the landmarks were placed on */
+	private Map landmarkMap;
+	/** The width of the map, the stride of the distance arrays */
+	private int width;
+	/** The height of the map */
+	private int height;
+	/** The tile index of each landmark */
+	private int[] landmarks;
+	/** The distance from each landmark to every tile, -1 if it can't be reached */
+	private int[][] fromLandmark;
+	/** The distance from every tile to each landmark, -1 if it can't be reached */
+	private int[][] toLandmark;
+	
+	/**
+	 * Create a heuristic with the default number of landmarks
+	 * 
+	 * @param map The map to place the landmarks on
+	 */
+	public LandmarkHeuristic(Map map) {
+		this(map, DEFAULT_LANDMARKS);
+	}
+
+	/**
+	 * Create a heuristic, placing the landmarks and working out their distances
+	 * 
+	 * @param map The map to place the landmarks on
+	 * @param count The number of landmarks to place. More landmarks give a better estimate
+	 * but each one costs two arrays the size of the map and a little time for every estimate
+	 */
+	public LandmarkHeuristic(Map map, int count) {
+		landmarkMap = map;
+		width = map.getWidth();
+		height = map.getHeight();
+		placeLandmarks(count);
+	}
+
+	/**
+	 * Get the number of landmarks that were placed. This can be fewer than asked for on a map
+	 * with few walkable tiles
+	 * 
+	 * @return The number of landmarks
+	 */
+	public int getNumLandmarks() {
+		return landmarks.length;
+	}
+
+	/**
+	 * Get the x coordinate of a landmark
+	 * 
+	 * @param i The index of the landmark
+	 * @return The x coordinate of the landmark
+	 */
+	public int getLandmarkX(int i) {
+		return landmarks[i] % width;
+	}
+
+	/**
+	 * Get the y coordinate of a landmark
+	 * 
+	 * @param i The index of the landmark
+	 * @return The y coordinate of the landmark
+	 */
+	public int getLandmarkY(int i) {
+		return landmarks[i] / width;
+	}
+
+	/**
+	 * @see AStarHeuristic#getCost(Map, Actor, int, int, int, int)
+	 */
+	@Override
+	public float getCost(Map map, Actor mover, int x, int y, int tx, int ty) {
+		float manhattan = super.getCost(map, mover, x, y, tx, ty);
+		if (map != landmarkMap) {
+			return manhattan;
+		}
+		
+		int node = (y * width) + x;
+		int target = (ty * width) + tx;
+		int best = (int) manhattan;
+		for (int i = 0; i < landmarks.length; i++) {
+			// d(node,target) >= d(landmark,target) - d(landmark,node)
+			int[] from = fromLandmark[i];
+			if ((from[node] >= 0) && (from[target] >= 0) && (from[target] - from[node] > best)) {
+				best = from[target] - from[node];
+			}
+			
+			// d(node,target) >= d(node,landmark) - d(target,landmark)
+			int[] to = toLandmark[i];
+			if ((to[node] >= 0) && (to[target] >= 0) && (to[node] - to[target] > best)) {
+				best = to[node] - to[target];
+			}
+		}
+		
+		return best;
+	}
+
+	/**
+	 * Place the landmarks as far apart as possible. The first is the tile furthest from an
+	 * arbitrary walkable tile and every other one is the tile furthest from all the landmarks
+	 * placed so far, which puts them out at the edges of the maze where they help most
+	 * 
+	 * @param count The number of landmarks to place
+	 */
+	private void placeLandmarks(int count) {
+		int tiles = width * height;
+		int[] placed = new int[count];
+		int[][] from = new int[count][];
+		int[][] to = new int[count][];
+		int numPlaced = 0;
+		
+		int seed = -1;
+		for (int i = 0; (i < tiles) && (seed < 0); i++) {
+			if (isWalkable(i % width, i / width)) {
+				seed = i;
+			}
+		}
+		
+		if (seed >= 0) {
+			// distance of every tile from the nearest landmark. Tiles the seed can't reach come first,
+			// so every part of a split map gets a landmark
+			int[] nearest = flood(seed, true);
+			for (int i = 0; i < tiles; i++) {
+				if (nearest[i] < 0) {
+					nearest[i] = Integer.MAX_VALUE;
+				}
+			}
+			
+			while (numPlaced < count) {
+				int next = -1;
+				for (int i = 0; i < tiles; i++) {
+					if ((nearest[i] > 0) && isWalkable(i % width, i / width) && ((next < 0) || (nearest[i] > nearest[next]))) {
+						next = i;
+					}
+				}
+				if (next < 0) {
+					break;
+				}
+				
+				placed[numPlaced] = next;
+				from[numPlaced] = flood(next, true);
+				to[numPlaced] = flood(next, false);
+				for (int i = 0; i < tiles; i++) {
+					if ((from[numPlaced][i] >= 0) && (from[numPlaced][i] < nearest[i])) {
+						nearest[i] = from[numPlaced][i];
+					}
+				}
+				numPlaced++;
+			}
+		}
+		
+		landmarks = Arrays.copyOf(placed, numPlaced);
+		fromLandmark = Arrays.copyOf(from, numPlaced);
+		toLandmark = Arrays.copyOf(to, numPlaced);
+	}
+
+	/**
+	 * Breadth first flood from a tile, following up, down, left and right moves and teleports
+	 * 
+	 * @param start The index of the tile to flood from
+	 * @param forward True for the distance from the start to every tile, false for the
+	 * distance from every tile to the start
+	 * @return The distance of every tile, -1 where it can't be reached
+	 */
+	private int[] flood(int start, boolean forward) {
+		int[] distance = new int[width * height];
+		int[] queue = new int[width * height];
+		Arrays.fill(distance, -1);
+		
+		int head = 0;
+		int tail = 0;
+		distance[start] = 0;
+		queue[tail++] = start;
+		while (head < tail) {
+			int current = queue[head++];
+			int cx = current % width;
+			int cy = current / width;
+			int d = distance[current] + 1;
+			
+			for (int n = 0; n < 4; n++) {
+				tail = visit(cx + NEIGHBOUR_DX[n], cy + NEIGHBOUR_DY[n], d, distance, queue, tail);
+			}
+			
+			// teleports are one way, so going backwards means finding the ones that arrive here
+			if (forward) {
+				int portal = landmarkMap.getPortalAt(cx, cy);
+				if (portal >= 0) {
+					tail = visit(landmarkMap.getPortalDestX(portal), landmarkMap.getPortalDestY(portal), d, distance, queue, tail);
+				}
+			} else {
+				for (int i = 0; i < landmarkMap.getNumPortals(); i++) {
+					if ((landmarkMap.getPortalDestX(i) == cx) && (landmarkMap.getPortalDestY(i) == cy)) {
+						tail = visit(landmarkMap.getPortalX(i), landmarkMap.getPortalY(i), d, distance, queue, tail);
+					}
+				}
+			}
+		}
+		
+		return distance;
+	}
+
+	/**
+	 * Record a tile as reached by the flood, if it's walkable and hasn't been reached yet
+	 * 
+	 * @param x The x coordinate of the tile
+	 * @param y The y coordinate of the tile
+	 * @param d The distance of the tile
+	 * @param distance The distance of every tile
+	 * @param queue The flood queue
+	 * @param tail The current tail of the flood queue
+	 * @return The new tail of the flood queue
+	 */
+	private int visit(int x, int y, int d, int[] distance, int[] queue, int tail) {
+		if (!isWalkable(x, y)) {
+			return tail;
+		}
+		
+		int tile = (y * width) + x;
+		if (distance[tile] >= 0) {
+			return tail;
+		}
+		distance[tile] = d;
+		queue[tail] = tile;
+		
+		return tail + 1;
+	}
+
+	/**
+	 * Check if a location is inside the map and can be walked on
+	 * 
+	 * @param x The x coordinate
+	 * @param y The y coordinate
+	 * @return True if the location is walkable
+	 */
+	private boolean isWalkable(int x, int y) {
+		return (x >= 0) && (y >= 0) && (x < width) && (y < height) && (landmarkMap.getCollidable(x, y) == 0);
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ * A heuristic using the Manhattan distance to the target. On a map without
+ * diagonal movement it's never more than the real cost and is tighter than
+ * the straight line distance. Portals are handled by AStarHeuristic.
+ *
+ *
+ */
+public class ManhattanHeuristic extends AStarHeuristic {
+
+	/**
+	 * Get the number of up, down, left and right moves between two tiles
+	 *
+	 * @param x The x coordinate of the first tile
+	 * @param y The y coordinate of the first tile
+	 * @param tx The x coordinate of the second tile
+	 * @param ty The y coordinate of the second tile
+	 * @return The Manhattan distance
+	 */
+	@Override
+	protected float getDistance(int x, int y, int tx, int ty) {
+		return Math.abs(tx - x) + Math.abs(ty - y);
+	}
+}
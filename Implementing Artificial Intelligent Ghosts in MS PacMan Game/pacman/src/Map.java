@@ -1,10 +1,22 @@
 import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
 
 /**
  * Map class keeps track objects on the playing grid, helper methods to make movement decisions, and export/import methods for the editor
@@ -12,17 +24,71 @@ import java.util.ArrayList;
  * 
  */
 public class Map {	
+	// Cost of stepping through a teleport. Same as a normal move so breadth first searches stay exact
+	public static final int PORTAL_COST = 1;
+	
+	// Collidable value of the border round the collision layer, the same value getCollidable() gives for tiles off the map
+	public static final byte COLLIDE_BORDER = -1;
+	
+	// Map file format. Version 1 files have the width straight after the magic, later versions have a 0 there and then the
+	// version number. See write() for the layout of the current version
+	public static final String FILE_MAGIC = "RKPACMAP";
+	public static final int FILE_VERSION = 2;
+	private static final int FILE_HEADER_SIZE = 46;
+	private static final int FILE_MAPPING_THRESHOLD = 1 << 16; // Files at least this big are memory mapped, smaller ones are read in one go
+	
 	// Map parameters (width & height represent # of cells)
 	private int mapWidth;
 	private int mapHeight;
 	public final int CELL_SIZE;
 	
 	// Instance vars
-	private byte collideMap[][];
-	private Item itemMap[][];
+	private byte collision[]; // Collidable of every tile, see getCollisionIndex()
+	private int collisionStride;
+	private int neighbourOffsets[];
+	private byte collideCopy[][]; // Built by getCollidableMap(), dropped when the collision layer changes
+	private boolean collisionShared; // The collision array is shared with another map and is copied before it's changed
 	private ArrayList<Actor> actorList;
-	private int dotsRemaining;
+	
+	// Item layer. Dots and power-ups are one bit per tile (y * width + x), with one template Item per kind holding the colour.
+	// getItem() hands out a small Item built from the template for each call. The rarer items (teleports, cherries) are kept
+	// whole in a sparse map
+	private BitSet dotBits;
+	private BitSet powerupBits;
+	private Item dotItem;
+	private Item powerupItem;
+	private HashMap<Integer, Item> sparseItems;
+	
+	// Actor occupancy index. Each tile (y * width + x) holds the first actor standing on it and the rest follow
+	// Actor.nextOnTile, so finding the actors on a tile doesn't depend on how many actors there are
+	private Actor actorAt[];
+	private Player player;
+	private ArrayList<Ghost> ghostList;
+	
+	// Teleport portals, found in the item map the first time they're asked for after it changes
+	private boolean portalsDirty;
+	private int numPortals;
+	private int portalX[];
+	private int portalY[];
+	private int portalDestX[];
+	private int portalDestY[];
+	private int portalAt[][]; // Index of the portal at each tile, -1 for none
+	
+	// Walkable tiles as a bitboard, one bit per tile in rows of 64 bit words. Rebuilt when asked for after the collision layer changes
+	private boolean walkableDirty;
+	private long walkableBits[];
 
+	// Connected components of the walkable tiles, following moves and teleports. Every tile in a component can reach every
+	// other one. Rebuilt when asked for after the collision layer or the portals change
+	private boolean componentsDirty;
+	private int numComponents;
+	private int componentOf[]; // Component of each tile by index (y * width + x), -1 for collidables
+	private int componentStart[]; // Where each component's tiles start in walkableTiles, plus one entry for the end
+	private int walkableTiles[]; // Index of every walkable tile, grouped by component
+	
+	// Told when a wall or item changes. The editor changes the map on the event thread while the game thread draws it
+	private CopyOnWriteArrayList<MapListener> mapListeners = new CopyOnWriteArrayList<MapListener>();
+	
 	/**
 	 * Class constructor, inits a blank map based on a width, height, and cell size
 	 * Used in the editor
@@ -33,20 +99,8 @@ public class Map {
 	 */
 	public Map(int w, int h, int cs) {
 		// Set map parameters
-		mapWidth = w;
-		mapHeight = h;
 		CELL_SIZE = cs;
-		dotsRemaining = 0;
-		
-		// Initialize collideMap, a 2D array that contains all static collidable GameObjects
-		// We use this for fast lookup during collision detection and AI movement paths
-		collideMap = new byte[mapWidth][mapHeight];
-		
-		// Initialize itemMap, a 2D array that contains items (dots, powerups, cherry) on the map
-		itemMap = new Item[mapWidth][mapHeight];
-		
-		// Create m_objects, an arraylist with all actorList
-		actorList = new ArrayList<Actor>();
+		initMap(w, h);
 	}
 	
 	/**
@@ -63,6 +117,54 @@ public class Map {
 		read(filename);
 	}
 	
+	/**
+	 * Class Constructor that copies another map, usually a MapTemplate's. The items and actors are copied, with every actor
+	 * at the position it has in the source. The collision layer and everything worked out from it are shared with the
+	 * source until the copy changes them. The source must have been marked with shareCollision(), so it copies the layer
+	 * before changing it too
+	 * 
+	 * @param source The map to copy
+	 * @param cs Size of individual cells in pixels
+	 * @see MapTemplate#createMap(int)
+	 * @see Map#shareCollision()
+	 */
+	public Map(Map source, int cs) {
+		CELL_SIZE = cs;
+		mapWidth = source.mapWidth;
+		mapHeight = source.mapHeight;
+		
+		// Share the collision layer, this map copies it before changing it
+		collisionStride = source.collisionStride;
+		neighbourOffsets = source.neighbourOffsets;
+		collision = source.collision;
+		collisionShared = true;
+		
+		// Copy the item layer. Dots and power-ups are two bit sets, the rest need new Items on this map
+		initItems();
+		dotBits = (BitSet)source.dotBits.clone();
+		powerupBits = (BitSet)source.powerupBits.clone();
+		dotItem.setColor(source.dotItem.getColor());
+		powerupItem.setColor(source.powerupItem.getColor());
+		for(Item item : source.sparseItems.values()) {
+			Item copy = new Item(item.getType(), item.getColor(), this, item.getX(), item.getY());
+			copy.setTeleport(item.getTeleportX(), item.getTeleportY());
+			sparseItems.put((copy.getY() * mapWidth) + copy.getX(), copy);
+		}
+		
+		// Copy the actors
+		initActors();
+		for(Actor a : source.actorList) {
+			if(a.getType() == GameObject.OBJECT_PLAYER)
+				addActor(new Player(this, a.getX(), a.getY()));
+			else if(a.getType() == GameObject.OBJECT_GHOST)
+				addActor(new Ghost(a.getColor(), this, a.getX(), a.getY(), ((Ghost)a).isTrapped()));
+			else
+				addActor(new Actor(a.getType(), a.getColor(), this, a.getX(), a.getY()));
+		}
+		
+		source.shareDerivedLayers(this);
+	}
+	
 	/**
 	 * The width of the map originally set in the constructor
 	 *
@@ -91,34 +193,158 @@ public class Map {
 	}
 	
 	/**
-	 * Return the collidable map (a 2d array of bytes which correspond to the collidable types defined in GameObject)
+	 * Return the collidable map (a 2d array of bytes which correspond to the collidable types defined in GameObject), indexed [x][y].
+	 * This is a copy of the collision layer, built the first time it's asked for after the layer changes, so writing to it doesn't
+	 * change the map
 	 * 
-	 * @return collidable map (collideMap)
+	 * @return collidable map
 	 */
 	public byte[][] getCollidableMap() {
-		return collideMap;
+		if(collideCopy == null) {
+			byte copy[][] = new byte[mapWidth][mapHeight];
+			for(int x = 0; x < mapWidth; x++) {
+				for(int y = 0; y < mapHeight; y++)
+					copy[x][y] = collision[getCollisionIndex(x, y)];
+			}
+			collideCopy = copy;
+		}
+		return collideCopy;
+	}
+	
+	/**
+	 * Mark the collision layer as shared with other maps, so this map copies it before changing it. Maps that are copied
+	 * with Map(Map, int) are marked once, before the first copy is made
+	 * 
+	 * @see Map#Map(Map, int)
+	 */
+	public void shareCollision() {
+		collisionShared = true;
+	}
+	
+	/**
+	 * Number of entries in each row of the collision layer. The layer is stored row by row, with a COLLIDE_BORDER tile
+	 * at each end of a row and a row of them above and below the map
+	 * 
+	 * @return Row length, the map width + 2
+	 */
+	public int getCollisionStride() {
+		return collisionStride;
 	}
 	
 	/**
-	 * Return the item map (a 2D array of Item objects)
+	 * Index of a tile in the collision layer, (y + 1) * getCollisionStride() + (x + 1). Tiles on the map and the
+	 * border one tile outside it have an index, nothing further out does
 	 * 
-	 * @return item map (itemMap)
+	 * @param x X coordinate, -1 to width
+	 * @param y Y coordinate, -1 to height
+	 * @return Collision index
+	 */
+	public int getCollisionIndex(int x, int y) {
+		return ((y + 1) * collisionStride) + x + 1;
+	}
+	
+	/**
+	 * X coordinate of a collision index
+	 * 
+	 * @param idx Collision index
+	 * @return X coordinate
+	 */
+	public int getCollisionX(int idx) {
+		return (idx % collisionStride) - 1;
+	}
+	
+	/**
+	 * Y coordinate of a collision index
+	 * 
+	 * @param idx Collision index
+	 * @return Y coordinate
+	 */
+	public int getCollisionY(int idx) {
+		return (idx / collisionStride) - 1;
+	}
+	
+	/**
+	 * Check if the tile at a collision index can be walked on. There are no bounds checks, the border makes the neighbours
+	 * of every tile on the map safe to look at. This is the same answer canMove() gives for any actor, for searches and
+	 * movement code that look at a lot of tiles
+	 * 
+	 * @param idx Collision index
+	 * @return True if there's no collidable on the tile
+	 * @see Map#getNeighbourOffsets()
+	 */
+	public boolean isWalkableIdx(int idx) {
+		return collision[idx] == 0;
+	}
+	
+	/**
+	 * Offsets from a collision index to the indices of its neighbours, in the order up, right, down, left (the order of
+	 * Actor.MOVE_UP to MOVE_LEFT). The array is shared and mustn't be written to
+	 * 
+	 * @return Neighbour offsets
+	 */
+	public int[] getNeighbourOffsets() {
+		return neighbourOffsets;
+	}
+	
+	/**
+	 * Number of 64 bit words in each row of the walkable bitboard
+	 * 
+	 * @return Words per row, (width + 63) / 64
+	 */
+	public int getWalkableWords() {
+		return (mapWidth + 63) >> 6;
+	}
+	
+	/**
+	 * Return the walkable tiles as a bitboard. Tile (x,y) is bit (x & 63) of word (y * getWalkableWords()) + (x >> 6),
+	 * set if the tile has no collidable on it. Bits past the right edge of the map are never set. The array is replaced
+	 * rather than modified when the collision layer changes, so it can be held on to as a snapshot but mustn't be written to
+	 * 
+	 * @return walkable bitboard
+	 */
+	public long[] getWalkableBits() {
+		if(walkableDirty) {
+			int words = getWalkableWords();
+			long bits[] = new long[mapHeight * words];
+			for(int y = 0; y < mapHeight; y++) {
+				int idx = getCollisionIndex(0, y);
+				for(int x = 0; x < mapWidth; x++, idx++) {
+					if(collision[idx] == 0)
+						bits[(y * words) + (x >> 6)] |= 1L << x;
+				}
+			}
+			walkableBits = bits;
+			walkableDirty = false;
+		}
+		return walkableBits;
+	}
+	
+	/**
+	 * Return the item map (a 2D array of Item objects). It's built on every call, so use getItem() to look at single tiles
+	 * 
+	 * @return item map
 	 */
 	public Item[][] getItemMap() {
-		return itemMap;
+		Item items[][] = new Item[mapWidth][mapHeight];
+		for(int x = 0; x < mapWidth; x++) {
+			for(int y = 0; y < mapHeight; y++) {
+				items[x][y] = getItem(x, y);
+			}
+		}
+		return items;
 	}
 	
 	/**
-	 * Return the number of dots remaining on the map. This is tracked by the dotsRemaining local var (not a loop and count in itemMap)
+	 * Return the number of dots remaining on the map. This is a population count of the dot bits (not a loop and count over items)
 	 * 
 	 * @return dots remaining
 	 */
 	public int getDotsRemaining() {
-		return dotsRemaining;
+		return dotBits.cardinality();
 	}
 	
 	/**
-	 * Add a collidable (by type) to the collideMap
+	 * Add a collidable (by type) to the collision layer
 	 * 
 	 * @param x X coordinate
 	 * @param y Y coordinate
@@ -131,16 +357,24 @@ public class Map {
 			return false;
 		
 		// Check if theres already something there
-		if(collideMap[x][y] > 0)
+		int idx = getCollisionIndex(x, y);
+		if(collision[idx] > 0)
 			return false;
 		
-		// Add to the collideMap
-		collideMap[x][y] = t;
+		// Add to the collision layer
+		ownCollision();
+		collision[idx] = t;
+		portalsDirty = true;
+		componentsDirty = true;
+		walkableDirty = true;
+		collideCopy = null;
+		fireTileChanged(x, y);
 		return true;
 	}
 	
 	/**
-	 * Put a new item to the item map
+	 * Put a new item to the item map, replacing any item already on its tile. Dots and power-ups aren't kept as objects,
+	 * only their tile and colour are, and every dot (or power-up) takes the colour of the last one added
 	 * 
 	 * @param item Item
 	 * @return True if successful
@@ -155,10 +389,30 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return false;
 		
-		// Add to the itemMap
-		if(item.getType() == GameObject.OBJECT_DOT)
-			dotsRemaining++;
-		itemMap[x][y] = item;
+		// Add to the item layer. A new colour for dots or power-ups recolours every one of them
+		clearItem(x, y);
+		int tile = (y * mapWidth) + x;
+		boolean recoloured = false;
+		if(item.getType() == GameObject.OBJECT_DOT) {
+			dotBits.set(tile);
+			recoloured = !item.getColor().equals(dotItem.getColor());
+			dotItem.setColor(item.getColor());
+		} else if(item.getType() == GameObject.OBJECT_POWERUP) {
+			powerupBits.set(tile);
+			recoloured = !item.getColor().equals(powerupItem.getColor());
+			powerupItem.setColor(item.getColor());
+		} else {
+			sparseItems.put(tile, item);
+			if(item.getType() == GameObject.OBJECT_TELEPORT) {
+				portalsDirty = true;
+				componentsDirty = true;
+			}
+		}
+		
+		if(recoloured)
+			fireMapChanged();
+		else
+			fireTileChanged(x, y);
 		return true;
 	}
 	
@@ -178,8 +432,13 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return false;
 		
-		// Add to the array list
+		// Add to the array list and the occupancy index
 		actorList.add(act);
+		linkActor(act);
+		if(act.getType() == GameObject.OBJECT_PLAYER)
+			player = (Player)act;
+		else if(act.getType() == GameObject.OBJECT_GHOST)
+			ghostList.add((Ghost)act);
 		return true;
 	}
 	
@@ -193,13 +452,14 @@ public class Map {
 	public byte getCollidable(int x, int y) {
 		// Check bounds
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
-			return -1;
+			return COLLIDE_BORDER;
 		
-		return collideMap[x][y];
+		return collision[getCollisionIndex(x, y)];
 	}
 	
 	/**
-	 * Return an item at coordinate (x,y) from within the item map (itemMap)
+	 * Return an item at coordinate (x,y) from within the item map. Dots and power-ups come back as a new Item for each call,
+	 * built from the template of that kind, so callers on other threads can't move it. Changing it doesn't change the map
 	 * 
 	 * @param x X Coordinate
 	 * @param y Y Coordinate
@@ -210,7 +470,156 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return null;
 		
-		return itemMap[x][y];
+		int tile = (y * mapWidth) + x;
+		Item template = null;
+		if(dotBits.get(tile))
+			template = dotItem;
+		else if(powerupBits.get(tile))
+			template = powerupItem;
+		if(template != null)
+			return new Item(template.getType(), template.getColor(), this, x, y);
+		
+		if(sparseItems.isEmpty())
+			return null;
+		return sparseItems.get(tile);
+	}
+	
+	/**
+	 * Number of teleport portals on the map. Every teleport item on a walkable tile whose destination is walkable is a
+	 * one way portal from its tile to the destination, costing PORTAL_COST to step through
+	 * 
+	 * @return Number of portals
+	 */
+	public int getNumPortals() {
+		findPortals();
+		return numPortals;
+	}
+	
+	/**
+	 * X coordinate of a portal's entrance
+	 * 
+	 * @param i Portal index
+	 * @return X coordinate
+	 */
+	public int getPortalX(int i) {
+		findPortals();
+		return portalX[i];
+	}
+	
+	/**
+	 * Y coordinate of a portal's entrance
+	 * 
+	 * @param i Portal index
+	 * @return Y coordinate
+	 */
+	public int getPortalY(int i) {
+		findPortals();
+		return portalY[i];
+	}
+	
+	/**
+	 * X coordinate a portal leads to
+	 * 
+	 * @param i Portal index
+	 * @return Destination X coordinate
+	 */
+	public int getPortalDestX(int i) {
+		findPortals();
+		return portalDestX[i];
+	}
+	
+	/**
+	 * Y coordinate a portal leads to
+	 * 
+	 * @param i Portal index
+	 * @return Destination Y coordinate
+	 */
+	public int getPortalDestY(int i) {
+		findPortals();
+		return portalDestY[i];
+	}
+	
+	/**
+	 * Find the portal whose entrance is at (x,y)
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return Portal index, -1 if there isn't one
+	 */
+	public int getPortalAt(int x, int y) {
+		findPortals();
+		if(numPortals == 0 || x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return -1;
+		return portalAt[x][y];
+	}
+	
+	/**
+	 * Number of walkable tiles on the map
+	 * 
+	 * @return Number of tiles without a collidable
+	 */
+	public int getNumWalkable() {
+		findComponents();
+		return walkableTiles.length;
+	}
+	
+	/**
+	 * Index (y * width + x) of a walkable tile. Tiles are grouped by component, so this isn't in map order
+	 * 
+	 * @param i Between 0 and getNumWalkable() - 1
+	 * @return Tile index
+	 */
+	public int getWalkableTile(int i) {
+		findComponents();
+		return walkableTiles[i];
+	}
+	
+	/**
+	 * Number of connected components. A component is a set of walkable tiles that can all reach each other with moves and
+	 * teleports, so a search between two tiles of different components may fail
+	 * 
+	 * @return Number of components
+	 */
+	public int getNumComponents() {
+		findComponents();
+		return numComponents;
+	}
+	
+	/**
+	 * Find the component a tile belongs to
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return Component index, -1 for collidables and tiles outside the map
+	 */
+	public int getComponent(int x, int y) {
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return -1;
+		findComponents();
+		return componentOf[(y * mapWidth) + x];
+	}
+	
+	/**
+	 * Number of tiles in a component
+	 * 
+	 * @param c Component index
+	 * @return Number of tiles
+	 */
+	public int getComponentSize(int c) {
+		findComponents();
+		return componentStart[c + 1] - componentStart[c];
+	}
+	
+	/**
+	 * Index (y * width + x) of a tile in a component
+	 * 
+	 * @param c Component index
+	 * @param i Between 0 and getComponentSize(c) - 1
+	 * @return Tile index
+	 */
+	public int getComponentTile(int c, int i) {
+		findComponents();
+		return walkableTiles[componentStart[c] + i];
 	}
 	
 	/**
@@ -230,18 +639,39 @@ public class Map {
 	}
 	
 	/**
-	 * Find and return the player object within the local actorList ArrayList
+	 * Return the player object. It's kept as actors are added and removed, so there's no search
 	 * 
 	 * @return The player object. null if not found
 	 */
 	public Player getPlayer() {
-		// Get from the object map
-		for(Actor g : actorList) {
-			if(g.getType() == GameObject.OBJECT_PLAYER)
-				return (Player)g;
-		}
+		return player;
+	}
+	
+	/**
+	 * Return every ghost on the map, in the order they were added. The list is kept as actors are added and removed
+	 * and mustn't be modified
+	 * 
+	 * @return List of ghosts
+	 */
+	public ArrayList<Ghost> getGhosts() {
+		return ghostList;
+	}
+	
+	/**
+	 * Return the first actor standing at coordinate (x,y). Any others on the same tile follow on from it with
+	 * Actor.getNextOnTile()
+	 * 
+	 * @param x X Coordinate
+	 * @param y Y Coordinate
+	 * @return Actor (null if no actor is at the position)
+	 * @see Actor#getNextOnTile()
+	 */
+	public Actor getActorAt(int x, int y) {
+		// Check bounds
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return null;
 		
-		return null;
+		return actorAt[(y * mapWidth) + x];
 	}
 	
 	/**
@@ -257,14 +687,12 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return null;
 		
-		// Get from the object map
-		for(Actor g : actorList) {
+		// Get from the occupancy index
+		for(Actor g = actorAt[(y * mapWidth) + x]; g != null; g = g.nextOnTile) {
 			if(notPlayer && g.getType() == GameObject.OBJECT_PLAYER)
 				continue;
 			
-			if(g.getX() == x && g.getY() == y) {
-				return g;
-			}
+			return g;
 		}
 		
 		return null;
@@ -277,7 +705,39 @@ public class Map {
 	 * @param idx Index of the actor
 	 */
 	public void removeActor(int idx) {		
-		actorList.remove(idx);
+		forgetActor(actorList.remove(idx));
+	}
+	
+	/**
+	 * Keep the occupancy index up to date when an actor changes tile. Called by Actor.move(), actors that were never
+	 * added to the map are ignored
+	 * 
+	 * @param act The actor that moved, already at its new position
+	 * @param oldX X coordinate it moved from
+	 * @param oldY Y coordinate it moved from
+	 * @see Actor#move(int, int)
+	 */
+	public void updateActorPosition(Actor act, int oldX, int oldY) {
+		if(unlinkActor(act, oldX, oldY))
+			linkActor(act);
+	}
+	
+	/**
+	 * Tell a listener whenever a wall or item on the map changes
+	 * 
+	 * @param l Listener
+	 */
+	public void addMapListener(MapListener l) {
+		mapListeners.addIfAbsent(l);
+	}
+	
+	/**
+	 * Stop telling a listener about changes
+	 * 
+	 * @param l Listener
+	 */
+	public void removeMapListener(MapListener l) {
+		mapListeners.remove(l);
 	}
 	
 	/**
@@ -291,10 +751,8 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return;
 		
-		if(itemMap[x][y].getType() == GameObject.OBJECT_DOT)
-			dotsRemaining--;
-		
-		itemMap[x][y] = null;
+		if(clearItem(x, y))
+			fireTileChanged(x, y);
 	}
 	
 	/**
@@ -313,26 +771,30 @@ public class Map {
 			return false;
 		
 		// Remove any collidable
-		if(collideMap[x][y] != 0) {
-			collideMap[x][y] = 0;
+		if(collision[getCollisionIndex(x, y)] != 0) {
+			ownCollision();
+			collision[getCollisionIndex(x, y)] = 0;
+			portalsDirty = true;
+			componentsDirty = true;
+			walkableDirty = true;
+			collideCopy = null;
 			rm = true;
 		}
 		
 		// Remove any item
-		if(itemMap[x][y] != null) {
-			itemMap[x][y] = null;
+		if(clearItem(x, y))
 			rm = true;
-		}
+		if(rm)
+			fireTileChanged(x, y);
 		
 		// Remove any actor
-		for(int i = 0; i < actorList.size(); i++) {
-			Actor a = actorList.get(i);
-			if(a.getX() == x && a.getY() == y) {
-				actorList.remove(i);
-				a = null;
-				i--;
-				rm = true;
-			}
+		Actor a = actorAt[(y * mapWidth) + x];
+		while(a != null) {
+			Actor next = a.nextOnTile;
+			actorList.remove(a);
+			forgetActor(a);
+			a = next;
+			rm = true;
 		}
 		
 		return rm;
@@ -362,16 +824,16 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return false;
 		
-		// Check if the Object is hitting something on the collideMap
-		if(getCollidable(x, y) != 0)
+		// Check if the Object is hitting something on the collision layer
+		if(collision[getCollisionIndex(x, y)] != 0)
 			return false;
 		
-		// Check if object is hitting something on the itemMap
+		// Check if object is hitting something on the item layer
 		if(getItem(x, y) != null)
 			return false;
 		
 		// Actor collission
-		if(getActor(x, y, false) != null)
+		if(actorAt[(y * mapWidth) + x] != null)
 			return false;
 		
 		return true;
@@ -393,8 +855,8 @@ public class Map {
 		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
 			return false;
 		
-		// Check if the Object is hitting something on the collideMap
-		if(getCollidable(x, y) != 0)
+		// Check if the Object is hitting something on the collision layer
+		if(collision[getCollisionIndex(x, y)] != 0)
 			return false;
 		
 		// Allow the Actor to move
@@ -416,59 +878,79 @@ public class Map {
 	public float getCost(Actor mover, int sx, int sy, int tx, int ty) {
 		return 1;
 	}
+	
+	/**
+	 * Check if every move across the map costs the same. Search optimizations like Jump Point Search
+	 * depend on this, so anything that makes getCost() vary must return false here
+	 * 
+	 * @return True if getCost() is the same for every move
+	 * @see PathFinder#SEARCH_JPS
+	 */
+	public boolean hasUniformCost() {
+		return true;
+	}
+	
+	/**
+	 * Copy the collision layer into a new map with no items or actors. Path finders working on other threads search
+	 * the copy, so nothing they read can change under them
+	 * 
+	 * @return New map with the same dimensions, cell size and collidables
+	 */
+	public Map copyCollision() {
+		Map copy = new Map(mapWidth, mapHeight, CELL_SIZE);
+		System.arraycopy(collision, 0, copy.collision, 0, collision.length);
+		
+		// The copy has no teleport items, so it takes the portals as they are now
+		shareDerivedLayers(copy);
+		return copy;
+	}
 
 	
 	/**
-	 * Write the contents of this map to a file in the correct format
+	 * Write the contents of this map to a file in the current format (version 2). Every number is big endian, as written by
+	 * DataOutputStream. The file starts with a FILE_HEADER_SIZE byte header:
+	 * - FILE_MAGIC (writeUTF), 0, FILE_VERSION, width, height
+	 * - the offsets of the collision, item and actor sections and of the end of the file
+	 * - the CRC32 of everything after the header
+	 * The collision section is the collision layer row by row, one byte per tile and without the border. The item section
+	 * has the dot and power-up colours and bits (64 tiles to a long, tile (y * width + x) is bit (tile & 63) of long
+	 * (tile >> 6)), then a count and every other item. The actor section is a count and every actor
 	 * 
 	 * @param filename File name of the map 
 	 */
 	public void write(String filename) {
-		FileOutputStream fout;
 		DataOutputStream data;
 		
 		try {
-			fout = new FileOutputStream(filename);
-			data = new DataOutputStream(fout);
-			
-			// Write the map file magic
-			data.writeUTF("RKPACMAP");
+			// Build the sections in memory first, so the header can give their offsets and checksum
+			ByteArrayOutputStream sections = new ByteArrayOutputStream((mapWidth * mapHeight * 5 / 4) + 1024);
+			data = new DataOutputStream(sections);
 			
-			// Write map width & height
-			data.writeInt(mapWidth);
-			data.writeInt(mapHeight);
+			// Write the collision layer
+			for(int y = 0; y < mapHeight; y++)
+				data.write(collision, getCollisionIndex(0, y), mapWidth);
+			int itemSection = data.size();
 			
-			// Write the collision map
-			for(int x = 0; x < mapWidth; x++) {
-				for(int y = 0; y < mapHeight; y++) {
-					data.write(collideMap[x][y]);
-				}
-			}
-			
-			// Write the item map
-			Item item = null;
-			for(int x = 0; x < mapWidth; x++) {
-				for(int y = 0; y < mapHeight; y++) {
-					item = itemMap[x][y];
-					
-					// If an item doesnt exist at (x,y), write 'false' for nonexistant and continue
-					if(item == null) {
-						data.writeBoolean(false);
-						continue;
-					}
-					data.writeBoolean(true);
-					
-					// Write properties of the item
-					data.writeInt(item.getType());
-					data.writeInt(item.getX());
-					data.writeInt(item.getY());
-					data.writeInt(item.getColor().getRGB());
-					if(item.getType() == GameObject.OBJECT_TELEPORT) {
-						data.writeInt(item.getTeleportX());
-						data.writeInt(item.getTeleportY());
-					}
+			// Write the dots and power-ups, then any other item in tile order
+			data.writeInt(dotItem.getColor().getRGB());
+			data.writeInt(powerupItem.getColor().getRGB());
+			writeBits(data, dotBits);
+			writeBits(data, powerupBits);
+			Integer tiles[] = sparseItems.keySet().toArray(new Integer[sparseItems.size()]);
+			Arrays.sort(tiles);
+			data.writeInt(tiles.length);
+			for(Integer tile : tiles) {
+				Item item = sparseItems.get(tile);
+				data.writeInt(item.getType());
+				data.writeInt(item.getX());
+				data.writeInt(item.getY());
+				data.writeInt(item.getColor().getRGB());
+				if(item.getType() == GameObject.OBJECT_TELEPORT) {
+					data.writeInt(item.getTeleportX());
+					data.writeInt(item.getTeleportY());
 				}
 			}
+			int actorSection = data.size();
 			
 			// Write the number of actorList, then all actor data
 			data.writeInt(actorList.size());
@@ -481,14 +963,404 @@ public class Map {
 					data.writeBoolean(((Ghost) a).isTrapped());
 				}
 			}
+			data.close();
+			byte body[] = sections.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(body);
 			
+			// Write the header, then the sections
+			data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			data.writeUTF(FILE_MAGIC);
+			data.writeInt(0);
+			data.writeInt(FILE_VERSION);
+			data.writeInt(mapWidth);
+			data.writeInt(mapHeight);
+			data.writeInt(FILE_HEADER_SIZE);
+			data.writeInt(FILE_HEADER_SIZE + itemSection);
+			data.writeInt(FILE_HEADER_SIZE + actorSection);
+			data.writeInt(FILE_HEADER_SIZE + body.length);
+			data.writeInt((int)crc.getValue());
+			data.write(body);
 			data.close();
-			fout.close();
 		} catch(IOException e) {
 			System.out.println("Failed to write map file: " + e.getMessage());
 		}
 	}
 	
+	/**
+	 * Set the map size and create empty layers and actor lists for it
+	 * 
+	 * @param w Width of the map
+	 * @param h Height of the map
+	 */
+	private void initMap(int w, int h) {
+		mapWidth = w;
+		mapHeight = h;
+		
+		// Initialize the collision layer, which contains all static collidable GameObjects
+		// We use this for fast lookup during collision detection and AI movement paths
+		initCollision();
+		
+		// Initialize the item layer, which contains items (dots, powerups, cherry) on the map
+		initItems();
+		
+		// Create m_objects, an arraylist with all actorList
+		initActors();
+		portalsDirty = true;
+		componentsDirty = true;
+		walkableDirty = true;
+	}
+	
+	/**
+	 * Create an empty actor list and occupancy index
+	 */
+	private void initActors() {
+		actorList = new ArrayList<Actor>();
+		actorAt = new Actor[mapWidth * mapHeight];
+		player = null;
+		ghostList = new ArrayList<Ghost>();
+	}
+	
+	/**
+	 * Hand the portals, components and walkable bits worked out for this map to a copy with the same collision layer and
+	 * portals, so the copy doesn't work them out again. They're replaced rather than modified, so neither map can change
+	 * them under the other
+	 * 
+	 * @param copy The copy
+	 */
+	private void shareDerivedLayers(Map copy) {
+		findPortals();
+		copy.numPortals = numPortals;
+		copy.portalX = portalX;
+		copy.portalY = portalY;
+		copy.portalDestX = portalDestX;
+		copy.portalDestY = portalDestY;
+		copy.portalAt = portalAt;
+		copy.portalsDirty = false;
+		
+		// Same walls and portals, so the same components
+		findComponents();
+		copy.numComponents = numComponents;
+		copy.componentOf = componentOf;
+		copy.componentStart = componentStart;
+		copy.walkableTiles = walkableTiles;
+		copy.componentsDirty = false;
+		
+		copy.walkableBits = getWalkableBits();
+		copy.walkableDirty = false;
+	}
+	
+	/**
+	 * Create an empty collision layer, walkable everywhere but the border
+	 */
+	private void initCollision() {
+		collisionStride = mapWidth + 2;
+		collision = new byte[collisionStride * (mapHeight + 2)];
+		Arrays.fill(collision, COLLIDE_BORDER);
+		for(int y = 0; y < mapHeight; y++)
+			Arrays.fill(collision, getCollisionIndex(0, y), getCollisionIndex(mapWidth, y), (byte)0);
+		neighbourOffsets = new int[] { -collisionStride, 1, collisionStride, -1 };
+		collideCopy = null;
+		collisionShared = false;
+	}
+	
+	/**
+	 * Copy the collision layer if it's shared with another map, before changing it
+	 */
+	private void ownCollision() {
+		if(collisionShared) {
+			collision = collision.clone();
+			collisionShared = false;
+		}
+	}
+	
+	/**
+	 * Create an empty item layer, with the dot and power-up templates
+	 */
+	private void initItems() {
+		dotBits = new BitSet(mapWidth * mapHeight);
+		powerupBits = new BitSet(mapWidth * mapHeight);
+		dotItem = new Item(GameObject.OBJECT_DOT, Color.WHITE, this, 0, 0);
+		powerupItem = new Item(GameObject.OBJECT_POWERUP, Color.WHITE, this, 0, 0);
+		sparseItems = new HashMap<Integer, Item>();
+	}
+	
+	/**
+	 * Take whatever item is at (x,y) out of the item layer
+	 * 
+	 * @param x X coordinate, inside the map
+	 * @param y Y coordinate, inside the map
+	 * @return True if there was an item to remove
+	 */
+	private boolean clearItem(int x, int y) {
+		int tile = (y * mapWidth) + x;
+		if(dotBits.get(tile)) {
+			dotBits.clear(tile);
+			return true;
+		}
+		if(powerupBits.get(tile)) {
+			powerupBits.clear(tile);
+			return true;
+		}
+		
+		Item item = sparseItems.isEmpty() ? null : sparseItems.remove(tile);
+		if(item == null)
+			return false;
+		if(item.getType() == GameObject.OBJECT_TELEPORT) {
+			portalsDirty = true;
+			componentsDirty = true;
+		}
+		return true;
+	}
+	
+	/**
+	 * Tell the listeners the collidable or item on a tile has changed
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 */
+	private void fireTileChanged(int x, int y) {
+		for(MapListener l : mapListeners)
+			l.tileChanged(this, x, y);
+	}
+	
+	/**
+	 * Tell the listeners something that affects many tiles has changed
+	 */
+	private void fireMapChanged() {
+		for(MapListener l : mapListeners)
+			l.mapChanged(this);
+	}
+	
+	/**
+	 * Put an actor at the head of the list of actors on its tile
+	 * 
+	 * @param act Actor
+	 */
+	private void linkActor(Actor act) {
+		int tile = (act.getY() * mapWidth) + act.getX();
+		act.nextOnTile = actorAt[tile];
+		actorAt[tile] = act;
+	}
+	
+	/**
+	 * Take an actor out of the list of actors on a tile
+	 * 
+	 * @param act Actor
+	 * @param x X coordinate of the tile
+	 * @param y Y coordinate of the tile
+	 * @return True if the actor was on the tile's list
+	 */
+	private boolean unlinkActor(Actor act, int x, int y) {
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return false;
+		
+		int tile = (y * mapWidth) + x;
+		Actor prev = null;
+		for(Actor a = actorAt[tile]; a != null; a = a.nextOnTile) {
+			if(a == act) {
+				if(prev == null)
+					actorAt[tile] = a.nextOnTile;
+				else
+					prev.nextOnTile = a.nextOnTile;
+				a.nextOnTile = null;
+				return true;
+			}
+			prev = a;
+		}
+		return false;
+	}
+	
+	/**
+	 * Drop an actor that's been taken out of actorList from the occupancy index, player and ghost list
+	 * 
+	 * @param act Actor
+	 */
+	private void forgetActor(Actor act) {
+		unlinkActor(act, act.getX(), act.getY());
+		if(act == player)
+			player = null;
+		ghostList.remove(act);
+	}
+	
+	/**
+	 * Rebuild the portal list from the teleport items if the map has changed since it was last built. The arrays are
+	 * replaced rather than modified, so copies made by copyCollision() are never touched
+	 */
+	private void findPortals() {
+		if(!portalsDirty)
+			return;
+		
+		int n = 0;
+		for(int x = 0; x < mapWidth; x++) {
+			for(int y = 0; y < mapHeight; y++) {
+				if(isPortal(x, y))
+					n++;
+			}
+		}
+		
+		numPortals = n;
+		portalX = new int[n];
+		portalY = new int[n];
+		portalDestX = new int[n];
+		portalDestY = new int[n];
+		portalAt = null;
+		if(n > 0) {
+			portalAt = new int[mapWidth][mapHeight];
+			n = 0;
+			for(int x = 0; x < mapWidth; x++) {
+				for(int y = 0; y < mapHeight; y++) {
+					portalAt[x][y] = -1;
+					if(!isPortal(x, y))
+						continue;
+					portalX[n] = x;
+					portalY[n] = y;
+					Item item = getItem(x, y);
+					portalDestX[n] = item.getTeleportX();
+					portalDestY[n] = item.getTeleportY();
+					portalAt[x][y] = n;
+					n++;
+				}
+			}
+		}
+		portalsDirty = false;
+	}
+	
+	/**
+	 * Check if (x,y) holds a teleport that can be walked into and leads somewhere walkable
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return True if the tile is a portal entrance
+	 */
+	private boolean isPortal(int x, int y) {
+		Item item = getItem(x, y);
+		if(item == null || item.getType() != GameObject.OBJECT_TELEPORT || collision[getCollisionIndex(x, y)] != 0)
+			return false;
+		
+		int dx = item.getTeleportX();
+		int dy = item.getTeleportY();
+		if(dx == x && dy == y)
+			return false;
+		return getCollidable(dx, dy) == 0;
+	}
+	
+	/**
+	 * Rebuild the components if the collision layer or portals have changed since they were last built. Teleports are one way,
+	 * so these are the strongly connected components of the tiles (Tarjan's algorithm, without recursion so big maps
+	 * can't overflow the stack). The arrays are replaced rather than modified, so copies made by copyCollision() are never touched
+	 */
+	private void findComponents() {
+		if(!componentsDirty)
+			return;
+		
+		int tiles = mapWidth * mapHeight;
+		int component[] = new int[tiles];
+		int order[] = new int[tiles]; // Visit order of each tile plus one, 0 if not visited yet
+		int low[] = new int[tiles]; // Lowest visit order reachable from the tile's subtree while it's on the stack
+		int stack[] = new int[tiles]; // Tiles visited but not yet given a component
+		int path[] = new int[tiles]; // Depth first search path
+		int edge[] = new int[tiles]; // Next edge to try for each tile on the path
+		int nStack = 0;
+		int visited = 0;
+		int walkable = 0;
+		int n = 0;
+		Arrays.fill(component, -1);
+		
+		for(int root = 0; root < tiles; root++) {
+			if(order[root] != 0 || getCollidable(root % mapWidth, root / mapWidth) != 0)
+				continue;
+			
+			int depth = 0;
+			path[0] = root;
+			edge[0] = 0;
+			order[root] = low[root] = ++visited;
+			stack[nStack++] = root;
+			while(depth >= 0) {
+				int t = path[depth];
+				if(edge[depth] < 5) {
+					int next = getComponentEdge(t, edge[depth]++);
+					if(next < 0)
+						continue;
+					if(order[next] == 0) {
+						// Go deeper
+						depth++;
+						path[depth] = next;
+						edge[depth] = 0;
+						order[next] = low[next] = ++visited;
+						stack[nStack++] = next;
+					} else if(component[next] < 0 && order[next] < low[t]) {
+						// Still on the stack, so part of the same component
+						low[t] = order[next];
+					}
+					continue;
+				}
+				
+				// Every edge tried. If nothing reached above this tile it roots a component made of everything above it on the stack
+				if(low[t] == order[t]) {
+					int member;
+					do {
+						member = stack[--nStack];
+						component[member] = n;
+						walkable++;
+					} while(member != t);
+					n++;
+				}
+				depth--;
+				if(depth >= 0 && low[t] < low[path[depth]])
+					low[path[depth]] = low[t];
+			}
+		}
+		
+		// Group the walkable tiles by component
+		int start[] = new int[n + 1];
+		for(int i = 0; i < tiles; i++) {
+			if(component[i] >= 0)
+				start[component[i] + 1]++;
+		}
+		for(int c = 0; c < n; c++)
+			start[c + 1] += start[c];
+		int grouped[] = new int[walkable];
+		int fill[] = Arrays.copyOf(start, n);
+		for(int i = 0; i < tiles; i++) {
+			if(component[i] >= 0)
+				grouped[fill[component[i]]++] = i;
+		}
+		
+		numComponents = n;
+		componentOf = component;
+		componentStart = start;
+		walkableTiles = grouped;
+		componentsDirty = false;
+	}
+	
+	/**
+	 * Follow one of the ways out of a walkable tile, for findComponents()
+	 * 
+	 * @param t Tile index (y * width + x)
+	 * @param e 0 to 3 for up, right, down and left, 4 for the tile's teleport
+	 * @return Index of the tile it leads to, -1 if it doesn't lead anywhere walkable
+	 */
+	private int getComponentEdge(int t, int e) {
+		int x = t % mapWidth;
+		int y = t / mapWidth;
+		switch(e) {
+			case 0: y--; break;
+			case 1: x++; break;
+			case 2: y++; break;
+			case 3: x--; break;
+			default:
+				int portal = getPortalAt(x, y);
+				if(portal < 0)
+					return -1;
+				x = portalDestX[portal];
+				y = portalDestY[portal];
+		}
+		if(getCollidable(x, y) != 0)
+			return -1;
+		return (y * mapWidth) + x;
+	}
+	
 	/**
 	 * Read a file with map contents and set the properties in this map
 	 * Called by the constructor.
@@ -496,34 +1368,77 @@ public class Map {
 	 * @param filename File name of the map
 	 */
 	private void read(String filename) {
+		RandomAccessFile file = null;
 		
-		FileInputStream fin;
-		DataInputStream data;
+		// A file that can't be read leaves an empty map rather than one with no layers
+		initMap(0, 0);
 		
 		try {
-			fin = new FileInputStream(filename);
-			data = new DataInputStream(fin);
+			// Big files are mapped into memory, small ones are cheaper to read in one go
+			file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			ByteBuffer buffer;
+			if(size >= FILE_MAPPING_THRESHOLD) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				byte contents[] = new byte[(int)size];
+				file.readFully(contents);
+				buffer = ByteBuffer.wrap(contents);
+			}
 			
 			// Check for the magic
-			if(!data.readUTF().equals("RKPACMAP")) {
+			byte magic[] = new byte[FILE_MAGIC.length()];
+			if(buffer.remaining() < 2 + magic.length + 4 || buffer.getShort() != magic.length) {
+				System.out.println("Not a map file!");
+				return;
+			}
+			buffer.get(magic);
+			if(!new String(magic, "US-ASCII").equals(FILE_MAGIC)) {
 				System.out.println("Not a map file!");
 				return;
 			}
 			
-			// Read map width & height
-			mapWidth = data.readInt();
-			mapHeight = data.readInt();
-			dotsRemaining = 0;
-			
-			// Initialize collideMap, a 2D array that contains all static collidable GameObjects
-			// We use this for fast lookup during collision detection and AI movement paths
-			collideMap = new byte[mapWidth][mapHeight];
+			// Version 1 goes straight on to the width
+			if(buffer.getInt(buffer.position()) != 0) {
+				readVersion1(filename);
+			} else {
+				buffer.getInt();
+				readVersion2(buffer);
+			}
 			
-			// Initialize itemMap, a 2D array that contains items (dots, powerups, cherry) on the map
-			itemMap = new Item[mapWidth][mapHeight];
+			// Label the components now rather than on the first random ghost destination
+			findComponents();
+		} catch(IOException e) {
+			System.out.println("Failed to read map file: " + e.getMessage());
+		} catch(BufferUnderflowException e) {
+			System.out.println("Failed to read map file: unexpected end of file");
+		} finally {
+			try {
+				if(file != null)
+					file.close();
+			} catch(IOException e) {
+				System.out.println("Failed to close map file: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Read a version 1 map file, a field at a time through a buffered stream. Version 1 is kept for maps saved before
+	 * version 2, write() only writes the current version
+	 * 
+	 * @param filename File name of the map
+	 * @throws IOException If the file can't be read
+	 */
+	private void readVersion1(String filename) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		
+		try {
+			// Skip the magic, read() has checked it
+			data.readUTF();
 			
-			// Create m_objects, an arraylist with all actorList
-			actorList = new ArrayList<Actor>();
+			// Read map width & height
+			initMap(data.readInt(), data.readInt());
 			
 			// Read the collision map
 			for(int x = 0; x < mapWidth; x++) {
@@ -544,12 +1459,13 @@ public class Map {
 					int ix = data.readInt();
 					int iy = data.readInt();
 					Color c = new Color(data.readInt());
-					addItem(new Item(t, c, this, ix, iy));
+					Item item = new Item(t, c, this, ix, iy);
 					if(t == GameObject.OBJECT_TELEPORT) {
 						int teleX = data.readInt();
 						int teleY = data.readInt();
-						itemMap[ix][iy].setTeleport(teleX, teleY);
+						item.setTeleport(teleX, teleY);
 					}
+					addItem(item);
 				}
 			}
 			
@@ -569,11 +1485,119 @@ public class Map {
 					addActor(new Actor(t, c, this, ix, iy));
 				}
 			}
-			
+		} finally {
 			data.close();
-			fin.close();
-		} catch(IOException e) {
-			System.out.println("Failed to read map file: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Read a version 2 map file (see write() for the layout). The header is checked and the checksum verified before
+	 * anything is read into the map, then the collision layer and item bits are copied across a row or a long at a time
+	 * 
+	 * @param buffer The file contents, positioned just after the 0 that follows the magic
+	 * @throws IOException If the file is damaged or from a later version
+	 */
+	private void readVersion2(ByteBuffer buffer) throws IOException {
+		int version = buffer.getInt();
+		if(version != FILE_VERSION)
+			throw new IOException("unsupported version " + version);
+		
+		// Check the header describes this file
+		int w = buffer.getInt();
+		int h = buffer.getInt();
+		int collisionSection = buffer.getInt();
+		int itemSection = buffer.getInt();
+		int actorSection = buffer.getInt();
+		int end = buffer.getInt();
+		int checksum = buffer.getInt();
+		if(w <= 0 || h <= 0 || collisionSection != FILE_HEADER_SIZE || (long)itemSection - collisionSection != (long)w * h
+				|| actorSection < itemSection || end < actorSection || end != buffer.limit())
+			throw new IOException("bad header");
+		
+		CRC32 crc = new CRC32();
+		byte chunk[] = new byte[Math.min(end - collisionSection, 1 << 16)];
+		buffer.position(collisionSection);
+		while(buffer.hasRemaining()) {
+			int n = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		if((int)crc.getValue() != checksum)
+			throw new IOException("checksum mismatch");
+		
+		initMap(w, h);
+		
+		// Read the collision layer
+		buffer.position(collisionSection);
+		for(int y = 0; y < mapHeight; y++)
+			buffer.get(collision, getCollisionIndex(0, y), mapWidth);
+		
+		// Read the dots and power-ups, then the other items
+		buffer.position(itemSection);
+		dotItem.setColor(new Color(buffer.getInt()));
+		powerupItem.setColor(new Color(buffer.getInt()));
+		readBits(buffer, dotBits);
+		readBits(buffer, powerupBits);
+		int nItems = buffer.getInt();
+		for(int i = 0; i < nItems; i++) {
+			int t = buffer.getInt();
+			int ix = buffer.getInt();
+			int iy = buffer.getInt();
+			Color c = new Color(buffer.getInt());
+			Item item = new Item(t, c, this, ix, iy);
+			if(t == GameObject.OBJECT_TELEPORT)
+				item.setTeleport(buffer.getInt(), buffer.getInt());
+			addItem(item);
+		}
+		
+		// Read the number of actorList, then all actor data
+		buffer.position(actorSection);
+		int nActorsSize = buffer.getInt();
+		for(int i = 0; i < nActorsSize; i++) {
+			int t = buffer.getInt();
+			int ix = buffer.getInt();
+			int iy = buffer.getInt();
+			Color c = new Color(buffer.getInt());
+			if(t == GameObject.OBJECT_PLAYER) {
+				addActor(new Player(this, ix, iy));
+			} else if(t == GameObject.OBJECT_GHOST) {
+				boolean trap = buffer.get() != 0;
+				addActor(new Ghost(c, this, ix, iy, trap));
+			} else {
+				addActor(new Actor(t, c, this, ix, iy));
+			}
+		}
+	}
+	
+	/**
+	 * Write a tile bit set as longs, 64 tiles to a long
+	 * 
+	 * @param data Stream to write to
+	 * @param bits One bit per tile (y * width + x)
+	 * @throws IOException If the stream can't be written to
+	 */
+	private void writeBits(DataOutputStream data, BitSet bits) throws IOException {
+		long words[] = new long[((mapWidth * mapHeight) + 63) >> 6];
+		for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			words[i >> 6] |= 1L << i;
+		for(long word : words)
+			data.writeLong(word);
+	}
+	
+	/**
+	 * Read a tile bit set written by writeBits()
+	 * 
+	 * @param buffer Buffer to read from
+	 * @param bits Empty bit set to fill in
+	 */
+	private void readBits(ByteBuffer buffer, BitSet bits) {
+		int words = ((mapWidth * mapHeight) + 63) >> 6;
+		for(int w = 0; w < words; w++) {
+			long word = buffer.getLong();
+			while(word != 0) {
+				bits.set((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
 		}
 	}
 	
@@ -0,0 +1,24 @@
+/**
+ * A MapListener is told when the walls or items on a map change, so anything drawn from them (like a MazeRenderer) can
+ * redraw just what changed. Actors moving about aren't reported
+ * 
+ * 
+ */
+public interface MapListener {
+	
+	/**
+	 * The collidable or the item on a tile has changed
+	 * 
+	 * @param map The map that changed
+	 * @param x X coordinate of the tile
+	 * @param y Y coordinate of the tile
+	 */
+	public void tileChanged(Map map, int x, int y);
+	
+	/**
+	 * Something that affects many tiles at once has changed, like the colour every dot is drawn in
+	 * 
+	 * @param map The map that changed
+	 */
+	public void mapChanged(Map map);
+}
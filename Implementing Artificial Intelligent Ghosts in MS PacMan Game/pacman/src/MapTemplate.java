@@ -0,0 +1,131 @@
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * A map template is a map file as it was loaded, before any level has been played on it. Each file is read once and
+ * kept here, and every level played on it starts from a copy made with createMap(), which copies the items and actors
+ * and shares the collision layer instead of parsing the file again. The template itself is never played on, so any
+ * number of games can make their maps from the same one.
+ * 
+ * Templates are cached by file name and reloaded if the file changes (as it does when the editor saves it).
+ * 
+ * 
+ */
+public class MapTemplate {
+	// Templates already loaded, by file name
+	private static final HashMap<String, MapTemplate> templates = new HashMap<String, MapTemplate>();
+	
+	// The file the template was loaded from and its state when it was read
+	private String filename;
+	private long lastModified;
+	private long length;
+	
+	// The map as loaded, copied by createMap()
+	private Map pristine;
+	
+	// Built the first time it's asked for
+	private RouteTable routes;
+	private boolean routesLoaded;
+	
+	/**
+	 * Class Constructor. Use load() to get the template for a map file
+	 * 
+	 * @param filename The file name of the map
+	 */
+	private MapTemplate(String filename) {
+		File file = new File(filename);
+		this.filename = filename;
+		lastModified = file.lastModified();
+		length = file.length();
+		pristine = new Map(filename, 32);
+		pristine.shareCollision();
+		
+		// Work out everything the copies share now, so they never have to change the template to get at it
+		pristine.getNumPortals();
+		pristine.getNumComponents();
+		pristine.getWalkableBits();
+	}
+	
+	/**
+	 * Get the template for a map file, reading the file if it hasn't been read before or has changed since
+	 * 
+	 * @param filename The file name of the map
+	 * @return The template. Its width is 0 if the file couldn't be read
+	 */
+	public static synchronized MapTemplate load(String filename) {
+		MapTemplate template = templates.get(filename);
+		if(template != null && template.isCurrent())
+			return template;
+		
+		template = new MapTemplate(filename);
+		
+		// Don't hold on to a failed load, the file may be fixed by the next one
+		if(template.getWidth() > 0)
+			templates.put(filename, template);
+		else
+			templates.remove(filename);
+		return template;
+	}
+	
+	/**
+	 * Check the file hasn't changed since the template was loaded
+	 * 
+	 * @return True if the file is the one the template was loaded from
+	 */
+	private boolean isCurrent() {
+		File file = new File(filename);
+		return file.lastModified() == lastModified && file.length() == length;
+	}
+	
+	/**
+	 * Create a map for a level, with the items and actors the file had
+	 * 
+	 * @param cs Size of individual cells in pixels
+	 * @return The new map
+	 */
+	public Map createMap(int cs) {
+		return new Map(pristine, cs);
+	}
+	
+	/**
+	 * Get the route table for the map, loading or building it the first time it's asked for. The table only describes
+	 * the walls and teleports, so it's the same for every map made from the template
+	 * 
+	 * @return The route table, null if the map is too big for one
+	 * @see RouteTable#load(Map, String)
+	 */
+	public synchronized RouteTable getRouteTable() {
+		if(!routesLoaded) {
+			routes = RouteTable.load(pristine, filename);
+			routesLoaded = true;
+		}
+		return routes;
+	}
+	
+	/**
+	 * The file name the template was loaded from
+	 * 
+	 * @return file name
+	 */
+	public String getFilename() {
+		return filename;
+	}
+	
+	/**
+	 * The width of the map
+	 * 
+	 * @return width in tiles
+	 */
+	public int getWidth() {
+		return pristine.getWidth();
+	}
+	
+	/**
+	 * The height of the map
+	 * 
+	 * @return height in tiles
+	 */
+	public int getHeight() {
+		return pristine.getHeight();
+	}
+}
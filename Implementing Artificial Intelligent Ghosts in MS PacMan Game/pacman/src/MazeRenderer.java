@@ -0,0 +1,245 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.BitSet;
+
+/**
+ * MazeRenderer draws the walls and items of a map into an image once and copies that image to the screen every frame,
+ * rather than drawing every wall and dot every frame. It listens to the map and redraws only the tiles that change (a dot
+ * being eaten, a wall placed in the editor), so a frame costs one image copy however many walls the map has.
+ * 
+ * The image is kept in video memory (a VolatileImage) when the graphics configuration allows it. Video memory can be lost
+ * at any time, for instance when the display mode changes, so the maze is also kept in an ordinary BufferedImage that the
+ * video memory copy is restored from, and that is drawn directly when there's no video memory to be had.
+ * 
+ * The game draws the map from the top left without scrolling, so only the tiles that fit in the view are drawn.
+ * 
+ * 
+ */
+public class MazeRenderer implements MapListener {
+	// The map drawn and the tiles of it that fit in the view
+	private Map map;
+	private int cellSize;
+	private int cols;
+	private int rows;
+	
+	// The maze as drawn, and its copy in video memory. config is null when there's no screen to make the copy for
+	private GraphicsConfiguration config;
+	private BufferedImage maze;
+	private VolatileImage accelerated;
+	
+	// Tiles changed since the last draw() by index (y * cols + x). The editor changes the map on the event thread
+	private BitSet dirtyTiles;
+	private boolean allDirty;
+	
+	/**
+	 * Class Constructor. The renderer listens to the map until dispose() is called
+	 * 
+	 * @param m The map to draw
+	 * @param gc Graphics configuration of the screen the maze is drawn to, null to keep the maze in system memory only
+	 * @param viewWidth Width of the view in pixels
+	 * @param viewHeight Height of the view in pixels
+	 */
+	public MazeRenderer(Map m, GraphicsConfiguration gc, int viewWidth, int viewHeight) {
+		map = m;
+		config = gc;
+		cellSize = m.CELL_SIZE;
+		cols = Math.min(m.getWidth(), (viewWidth + cellSize - 1) / cellSize);
+		rows = Math.min(m.getHeight(), (viewHeight + cellSize - 1) / cellSize);
+		dirtyTiles = new BitSet(cols * rows);
+		allDirty = true;
+		
+		if(cols > 0 && rows > 0) {
+			if(config != null)
+				maze = config.createCompatibleImage(cols * cellSize, rows * cellSize, Transparency.OPAQUE);
+			else
+				maze = new BufferedImage(cols * cellSize, rows * cellSize, BufferedImage.TYPE_INT_RGB);
+		}
+		map.addMapListener(this);
+	}
+	
+	/**
+	 * Draw the walls and items of the map at (0,0)
+	 * 
+	 * @param g Graphics to draw to
+	 */
+	public void draw(Graphics2D g) {
+		if(maze == null)
+			return;
+		
+		Rectangle changed = updateMaze();
+		if(config == null) {
+			g.drawImage(maze, 0, 0, null);
+			return;
+		}
+		
+		// Draw the video memory copy, restoring it from the maze whenever its contents are lost
+		do {
+			int status = (accelerated != null) ? accelerated.validate(config) : VolatileImage.IMAGE_INCOMPATIBLE;
+			if(status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if(accelerated != null)
+					accelerated.flush();
+				accelerated = config.createCompatibleVolatileImage(maze.getWidth(), maze.getHeight(), Transparency.OPAQUE);
+				if(accelerated == null) {
+					config = null;
+					g.drawImage(maze, 0, 0, null);
+					return;
+				}
+				copyToAccelerated(null);
+			} else if(status == VolatileImage.IMAGE_RESTORED) {
+				copyToAccelerated(null);
+			} else if(changed != null) {
+				copyToAccelerated(changed);
+			}
+			changed = null;
+			
+			g.drawImage(accelerated, 0, 0, null);
+		} while(accelerated.contentsLost());
+	}
+	
+	/**
+	 * Stop listening to the map and free the images
+	 */
+	public void dispose() {
+		map.removeMapListener(this);
+		if(accelerated != null)
+			accelerated.flush();
+		accelerated = null;
+		if(maze != null)
+			maze.flush();
+		maze = null;
+	}
+	
+	/**
+	 * @see MapListener#tileChanged(Map, int, int)
+	 */
+	@Override
+	public synchronized void tileChanged(Map m, int x, int y) {
+		if(x < cols && y < rows)
+			dirtyTiles.set((y * cols) + x);
+	}
+	
+	/**
+	 * @see MapListener#mapChanged(Map)
+	 */
+	@Override
+	public synchronized void mapChanged(Map m) {
+		allDirty = true;
+	}
+	
+	// Private Methods
+	
+	/**
+	 * Redraw the tiles of the maze that changed since the last call
+	 * 
+	 * @return The area redrawn in pixels, null if nothing was
+	 */
+	private synchronized Rectangle updateMaze() {
+		if(!allDirty && dirtyTiles.isEmpty())
+			return null;
+		
+		Graphics2D g = maze.createGraphics();
+		Rectangle changed = null;
+		if(allDirty) {
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, maze.getWidth(), maze.getHeight());
+			for(int y = 0; y < rows; y++) {
+				for(int x = 0; x < cols; x++)
+					paintTile(g, x, y, false);
+			}
+			changed = new Rectangle(0, 0, maze.getWidth(), maze.getHeight());
+			allDirty = false;
+		} else {
+			for(int i = dirtyTiles.nextSetBit(0); i >= 0; i = dirtyTiles.nextSetBit(i + 1)) {
+				int x = i % cols;
+				int y = i / cols;
+				paintTile(g, x, y, true);
+				
+				Rectangle tile = new Rectangle(x * cellSize, y * cellSize, cellSize, cellSize);
+				if(changed == null)
+					changed = tile;
+				else
+					changed.add(tile);
+			}
+		}
+		dirtyTiles.clear();
+		g.dispose();
+		return changed;
+	}
+	
+	/**
+	 * Copy part of the maze to video memory
+	 * 
+	 * @param area The area to copy in pixels, null for all of it
+	 */
+	private void copyToAccelerated(Rectangle area) {
+		Graphics2D g = accelerated.createGraphics();
+		if(area == null)
+			g.drawImage(maze, 0, 0, null);
+		else
+			g.drawImage(maze, area.x, area.y, area.x + area.width, area.y + area.height, area.x, area.y, area.x + area.width, area.y + area.height, null);
+		g.dispose();
+	}
+	
+	/**
+	 * Draw the wall and the item on a tile. Everything on a tile is drawn inside it, so a tile can be redrawn on its own
+	 * 
+	 * @param g Graphics of the maze image
+	 * @param x X coordinate of the tile
+	 * @param y Y coordinate of the tile
+	 * @param clear True to clear the tile first
+	 */
+	private void paintTile(Graphics2D g, int x, int y, boolean clear) {
+		if(clear) {
+			g.setColor(Color.BLACK);
+			g.fillRect(x*cellSize, y*cellSize, cellSize, cellSize);
+		}
+		
+		// Switch based on wall type and paint
+		g.setColor(Color.BLUE);
+		switch(map.getCollidable(x, y)) {
+			case 0:
+				// Nothing
+				break;
+			case GameObject.WALL_VERTICAL:
+				// Vertical wall, no edges
+				g.fillRoundRect(x*cellSize+10, y*cellSize, 12, cellSize, 0, 0); // 2x+12 = cellSize. x = 10
+				break;
+			case GameObject.WALL_HORIZONTAL:
+				// Horizontal wall, no edges
+				g.fillRoundRect(x*cellSize, y*cellSize+10, cellSize, 12, 0, 0);
+				break;
+			case GameObject.WALL_TOPLEFT:
+				g.fillRoundRect(x*cellSize+(cellSize/2), y*cellSize+10, cellSize/2, 12, 0, 0);
+				g.fillRoundRect(x*cellSize+10, y*cellSize+(cellSize/2), 12, cellSize/2, 0, 0);
+				break;
+			case GameObject.WALL_TOPRIGHT:
+				g.fillRoundRect(x*cellSize, y*cellSize+10, cellSize/2, 12, 0, 0);
+				g.fillRoundRect(x*cellSize+10, y*cellSize+(cellSize/2), 12, cellSize/2, 0, 0);
+				break;
+			case GameObject.WALL_BOTTOMLEFT:
+				g.fillRoundRect(x*cellSize+(cellSize/2), y*cellSize+10, cellSize/2, 12, 0, 0); // hori
+				g.fillRoundRect(x*cellSize+10, y*cellSize, 12, cellSize/2, 0, 0); //vert
+				break;
+			case GameObject.WALL_BOTTOMRIGHT:
+				g.fillRoundRect(x*cellSize, y*cellSize+10, cellSize/2, 12, 0, 0); // hori
+				g.fillRoundRect(x*cellSize+10, y*cellSize, 12, cellSize/2, 0, 0); //vert
+				break;
+			case GameObject.WALL_GHOSTBARRIER:
+				g.setColor(Color.PINK);
+				g.fillRoundRect(x*cellSize, y*cellSize+10, cellSize, 6, 0, 0);
+				break;
+			default:
+				break;
+		}
+		
+		// Paint any item here
+		Item item = map.getItem(x, y);
+		if(item != null)
+			item.paint(g);
+	}
+}
@@ -1,30 +1,73 @@
-import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * A path determined by some path finding algorithm. A series of steps from
  * the starting location to the target location. This includes a step for the
  * initial location.
  * 
+ * Steps are packed into a single int each ((y << 16) | x) and kept in an array
+ * with free space at the end they're added to, so path finders can build the
+ * path back to front with prependStep() without shifting anything. A path finder
+ * that knows the length of its path can have the array sized exactly.
+ * 
  * 
  */
 public class Path {
-	/** The list of steps building up this path */
-	private ArrayList<Step> steps;
+	/** The default number of steps room is made for at each end */
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	/** The packed steps building up this path, from head to tail */
+	private int[] steps;
+	/** The slot of the first step */
+	private int head;
+	/** The slot after the last step */
+	private int tail;
+	/** The steps in the path by their offset from (minX,minY), built the first time contains() is used */
+	private BitSet members;
+	/** The bounds of the steps covered by members */
+	private int minX, minY, spanX;
 	
 	/**
 	 * Create an empty path
 	 */
 	public Path() {
-		steps = new ArrayList<Step>();
+		this(DEFAULT_CAPACITY);
 	}
-
+	
+	/**
+	 * Create an empty path with room for a number of steps at either end, for
+	 * path finders that build the path outwards from somewhere in the middle
+	 * 
+	 * @param capacity The number of steps to make room for
+	 */
+	public Path(int capacity) {
+		capacity = Math.max(capacity, 1);
+		steps = new int[capacity * 2];
+		head = capacity;
+		tail = head;
+	}
+	
+	/**
+	 * Create an empty path with room for exactly the given number of steps, for
+	 * a path finder that knows the length of its path and builds it from one end
+	 * 
+	 * @param length The number of steps the path will have
+	 * @param backwards True if the path is built back to front with prependStep(),
+	 * false if it's built front to back with appendStep()
+	 */
+	public Path(int length, boolean backwards) {
+		steps = new int[Math.max(length, 1)];
+		head = backwards ? steps.length : 0;
+		tail = head;
+	}
+	
 	/**
 	 * Get the length of the path, i.e. the number of steps
 	 * 
 	 * @return The number of steps in this path
 	 */
 	public int getLength() {
-		return steps.size();
+		return tail - head;
 	}
 	
 	/**
@@ -35,7 +78,7 @@ public class Path {
 	 * @return The step information, the position on the map.
 	 */
 	public Step getStep(int index) {
-		return (Step) steps.get(index);
+		return new Step(getX(index), getY(index));
 	}
 	
 	/**
@@ -45,9 +88,9 @@ public class Path {
 	 * @return The x coordinate at the step
 	 */
 	public int getX(int index) {
-		return getStep(index).x;
+		return steps[slot(index)] & 0xFFFF;
 	}
-
+	
 	/**
 	 * Get the y coordinate for the step at the given index
 	 * 
@@ -55,7 +98,7 @@ public class Path {
 	 * @return The y coordinate at the step
 	 */
 	public int getY(int index) {
-		return getStep(index).y;
+		return steps[slot(index)] >>> 16;
 	}
 	
 	/**
@@ -65,9 +108,13 @@ public class Path {
 	 * @param y The y coordinate of the new step
 	 */
 	public void appendStep(int x, int y) {
-		steps.add(new Step(x,y));
+		if (tail == steps.length) {
+			grow();
+		}
+		steps[tail++] = pack(x, y);
+		members = null;
 	}
-
+	
 	/**
 	 * Prepend a step to the path.  
 	 * 
@@ -75,7 +122,11 @@ public class Path {
 	 * @param y The y coordinate of the new step
 	 */
 	public void prependStep(int x, int y) {
-		steps.add(0, new Step(x, y));
+		if (head == 0) {
+			grow();
+		}
+		steps[--head] = pack(x, y);
+		members = null;
 	}
 	
 	/**
@@ -86,7 +137,81 @@ public class Path {
 	 * @return True if the path contains the given step
 	 */
 	public boolean contains(int x, int y) {
-		return steps.contains(new Step(x,y));
+		if (head == tail) {
+			return false;
+		}
+		if (members == null) {
+			buildMembers();
+		}
+		
+		int ox = x - minX;
+		int oy = y - minY;
+		if ((ox < 0) || (oy < 0) || (ox >= spanX)) {
+			return false;
+		}
+		return members.get((oy * spanX) + ox);
+	}
+	
+	/**
+	 * Get the array slot holding a step
+	 * 
+	 * @param index The index of the step
+	 * @return The slot in the steps array
+	 */
+	private int slot(int index) {
+		if ((index < 0) || (index >= tail - head)) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + (tail - head));
+		}
+		return head + index;
+	}
+	
+	/**
+	 * Pack a step into a single int
+	 * 
+	 * @param x The x coordinate of the step
+	 * @param y The y coordinate of the step
+	 * @return The packed step
+	 */
+	private static int pack(int x, int y) {
+		return (y << 16) | (x & 0xFFFF);
+	}
+	
+	/**
+	 * Double the size of the steps array, keeping the steps centred so there's room
+	 * to add at either end
+	 */
+	private void grow() {
+		int length = tail - head;
+		int[] larger = new int[steps.length * 2];
+		int newHead = (larger.length - length) / 2;
+		System.arraycopy(steps, head, larger, newHead, length);
+		steps = larger;
+		head = newHead;
+		tail = newHead + length;
+	}
+	
+	/**
+	 * Mark every step of the path in a bit set covering the rectangle the path fits in
+	 */
+	private void buildMembers() {
+		int maxX = 0;
+		int maxY = 0;
+		minX = Integer.MAX_VALUE;
+		minY = Integer.MAX_VALUE;
+		for (int i = head; i < tail; i++) {
+			int x = steps[i] & 0xFFFF;
+			int y = steps[i] >>> 16;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		
+		spanX = (maxX - minX) + 1;
+		members = new BitSet(spanX * ((maxY - minY) + 1));
+		for (int i = head; i < tail; i++) {
+			members.set((((steps[i] >>> 16) - minY) * spanX) + ((steps[i] & 0xFFFF) - minX));
+		}
 	}
 	
 	/**
@@ -119,7 +244,7 @@ public class Path {
 		public int getX() {
 			return x;
 		}
-
+		
 		/**
 		 * Get the y coordinate of the new step
 		 * 
@@ -133,9 +258,9 @@ public class Path {
 		 * @see Object#hashCode()
 		 */
 		public int hashCode() {
-			return x*y;
+			return pack(x, y);
 		}
-
+		
 		/**
 		 * @see Object#equals(Object)
 		 */
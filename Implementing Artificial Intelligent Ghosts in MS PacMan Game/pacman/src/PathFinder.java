@@ -1,29 +1,130 @@
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 
 /**
  * A path finder implementation that uses the AStar heuristic based algorithm
- * to determine a path. 
+ * to determine a path.
+ * 
+ * All of the per node search state is held in flat primitive arrays indexed by
+ * y*width+x. Each entry is stamped with the search generation that last wrote it,
+ * so starting a new search invalidates everything left over from the previous one
+ * by bumping a counter rather than walking the map.
+ * 
+ * In SEARCH_BIDIRECTIONAL mode, searches on maps with uniform move costs whose
+ * ends are far apart are run as a breadth first search from both ends instead of
+ * A*, see setBidirectionalDistance(). The heuristic then only decides which
+ * searches are far apart, so leave it to A* when the heuristic is a good one.
  * 
  * 
  */
 public class PathFinder {
-	/** The set of nodes that have been searched through */
-	private ArrayList<Node> closed;
-	/** The set of nodes that we do not yet consider fully searched */
-	private SortedList open = new SortedList();
+	/** Search mode - classic A*, every neighbour of a node is evaluated */
+	public static final int SEARCH_ASTAR = 0;
+	/** Search mode - Jump Point Search, symmetric routes across open ground are pruned. Needs uniform move costs */
+	public static final int SEARCH_JPS = 1;
+	/** Search mode - search the map's corridor/junction graph. Needs uniform move costs and no diagonal movement */
+	public static final int SEARCH_JUNCTIONS = 2;
+	/** Search mode - A*, except long searches are a breadth first search from both ends. Needs uniform move costs */
+	public static final int SEARCH_BIDIRECTIONAL = 3;
+	
+	/** Node status - the node is in the open list */
+	private static final byte STATUS_OPEN = 1;
+	/** Node status - the node has been searched through */
+	private static final byte STATUS_CLOSED = 2;
+	/** Node status - the node has been reached from the start by a bidirectional search */
+	private static final byte STATUS_FORWARD = 4;
+	/** Node status - the node has been reached from the target by a bidirectional search */
+	private static final byte STATUS_BACKWARD = 8;
+	
+	/** The default estimated distance beyond which SEARCH_BIDIRECTIONAL searches are run bidirectionally */
+	public static final int DEFAULT_BIDIRECTIONAL_DISTANCE = 8;
 	
 	/** The map being searched */
 	private Map map;
 	/** The maximum depth of search we're willing to accept before giving up */
 	private int maxSearchDistance;
+	/** The width of the map, the stride of the node arrays */
+	private int width;
+	/** The stride of the map's collision layer */
+	private int stride;
+	/** The moves tried from each node, as x and y steps and as offsets on the collision layer */
+	private int[] moveX, moveY, moveOffset;
 	
-	/** The complete set of nodes across the map */
-	private Node[][] nodes;
 	/** True if we allow diaganol movement */
 	private boolean allowDiagMovement;
+	/** The search algorithm, SEARCH_ASTAR, SEARCH_JPS, SEARCH_JUNCTIONS or SEARCH_BIDIRECTIONAL */
+	private int searchMode;
+	/** The compiled corridor/junction graph of the map, only built for SEARCH_JUNCTIONS */
+	private JunctionGraph junctions;
 	/** The heuristic we're applying to determine which nodes to search first */
 	private AStarHeuristic heuristic;
+	/** The number of nodes expanded by the last search */
+	private int expandedNodes;
+	/** The estimated distance beyond which SEARCH_BIDIRECTIONAL searches are run bidirectionally */
+	private int bidirectionalDistance;
+	
+	/** The entity moving along the path being searched for */
+	private Actor searchMover;
+	/** The start location of the current search */
+	private int startX, startY;
+	/** The collision index of the start location, which the mover can always stand on */
+	private int startIdx;
+	/** The target location of the current search */
+	private int targetX, targetY;
+	/** The deepest we've gone in the current search */
+	private int searchDepth;
+	/** The index of the start and target nodes of the current search */
+	private int searchStart, searchTarget;
+	/** True if the current search is using jump points */
+	private boolean searchJumpPoints;
+	/** True if the current search has been handed to the junction graph */
+	private boolean searchJunctions;
+	/** True if the current search is a bidirectional breadth first search */
+	private boolean searchBidirectional;
+	/** True while the current search still has nodes to expand */
+	private boolean searchActive;
+	/** The path found by the current search, null until it's done */
+	private Path searchResult;
+	
+	/** The current search generation, node state stamped with anything else is stale */
+	private int generation;
+	/** The generation each node's state was last written in */
+	private int[] stamp;
+	/** The open/closed status of each node */
+	private byte[] status;
+	/** The path cost of each node */
+	private float[] cost;
+	/** The heuristic cost of each node */
+	private float[] heuristicCost;
+	/** The index of the node we reached each node from, -1 for none */
+	private int[] parent;
+	/** The search depth of each node */
+	private int[] depth;
+	
+	/** The open list, a binary min-heap of node indices. The best candidate is at slot 0 */
+	private int[] open;
+	/** The number of nodes in the open list */
+	private int openSize;
+	/** The slot each node occupies in the open list */
+	private int[] openSlot;
+	
+	/** The breadth first queue of the search from the target. The open array holds the one from the start */
+	private int[] backQueue;
+	/** The distance of each node from the target, valid where STATUS_BACKWARD is set */
+	private int[] backDepth;
+	/** The index of the node we reached each node from, going towards the target */
+	private int[] backParent;
+	/** The queue head, tail and end of the layer being expanded, from the start [0] and from the target [1] */
+	private int[] queueHead = new int[2];
+	private int[] queueTail = new int[2];
+	private int[] layerEnd = new int[2];
+	/** The number of layers each side has finished */
+	private int[] layers = new int[2];
+	/** The side whose layer is being expanded, 0 from the start and 1 from the target */
+	private int side;
+	/** The node where the best route found so far meets, -1 for none */
+	private int meetNode;
+	/** The length of the best route found so far */
+	private int meetLength;
 	
 	/**
 	 * Create a path finder with the default heuristic - closest to target.
@@ -37,7 +138,7 @@ public class PathFinder {
 	}
 
 	/**
-	 * Create a path finder 
+	 * Create a path finder
 	 * 
 	 * @param heuristic The heuristic used to determine the search order of the map
 	 * @param map The map to be searched
@@ -45,24 +146,55 @@ public class PathFinder {
 	 * @param allowDiagMovement True if the search should try diaganol movement
 	 */
 	public PathFinder(Map map, int maxSearchDistance, boolean allowDiagMovement, AStarHeuristic heuristic) {
+		this(map, maxSearchDistance, allowDiagMovement, heuristic, SEARCH_ASTAR);
+	}
+
+	/**
+	 * Create a path finder using a specific search algorithm. Jump Point Search
+	 * and the junction graph only apply while the map reports uniform move costs,
+	 * otherwise the finder quietly falls back to A*. The junction graph is compiled
+	 * from the map here, so walls added later aren't seen by it.
+	 * 
+	 * @param heuristic The heuristic used to determine the search order of the map
+	 * @param map The map to be searched
+	 * @param maxSearchDistance The maximum depth we'll search before giving up
+	 * @param allowDiagMovement True if the search should try diaganol movement
+	 * @param searchMode SEARCH_ASTAR, SEARCH_JPS, SEARCH_JUNCTIONS or SEARCH_BIDIRECTIONAL
+	 * @see Map#hasUniformCost()
+	 */
+	public PathFinder(Map map, int maxSearchDistance, boolean allowDiagMovement, AStarHeuristic heuristic, int searchMode) {
 		this.heuristic = heuristic;
+		this.searchMode = searchMode;
 		this.map = map;
 		this.maxSearchDistance = maxSearchDistance;
 		this.allowDiagMovement = allowDiagMovement;
 		
-		closed = new ArrayList<Node>();
-		nodes = new Node[map.getWidth()][map.getHeight()];
+		width = map.getWidth();
+		stride = map.getCollisionStride();
+		buildMoves();
+		int nodeCount = width * map.getHeight();
+		stamp = new int[nodeCount];
+		status = new byte[nodeCount];
+		cost = new float[nodeCount];
+		heuristicCost = new float[nodeCount];
+		parent = new int[nodeCount];
+		depth = new int[nodeCount];
+		open = new int[nodeCount];
+		openSlot = new int[nodeCount];
+		backQueue = new int[nodeCount];
+		backDepth = new int[nodeCount];
+		backParent = new int[nodeCount];
+		generation = 0;
+		bidirectionalDistance = DEFAULT_BIDIRECTIONAL_DISTANCE;
 		
-		for (int x=0;x<map.getWidth();x++) {
-			for (int y=0;y<map.getHeight();y++) {
-				nodes[x][y] = new Node(x,y);
-			}
+		if ((searchMode == SEARCH_JUNCTIONS) && !allowDiagMovement) {
+			junctions = new JunctionGraph(map);
 		}
 	}
-	
+
 	/**
 	 * Find a path from the starting location provided (sx,sy) to the target
-	 * location (tx,ty) avoiding blockages and attempting to honour costs 
+	 * location (tx,ty) avoiding blockages and attempting to honour costs
 	 * provided by the tile map.
 	 * 
 	 * @param mover The entity that will be moving along the path. This provides
@@ -75,203 +207,840 @@ public class PathFinder {
 	 * @param ty Teh y coordinate of the target location
 	 * @return The path found from start to end, or null if no path can be found.
 	 */
-
+	
 	public Path findPath(Actor mover, int sx, int sy, int tx, int ty) {
-		// easy first check, if the destination is blocked, we can't get there
+		startSearch(mover, sx, sy, tx, ty);
+		continueSearch(Integer.MAX_VALUE);
+		return getSearchResult();
+	}
 
+	/**
+	 * Start a search from (sx,sy) to (tx,ty) without expanding any nodes yet.
+	 * The search is then run a slice at a time with continueSearch(), so a long
+	 * search can be spread over several frames. Only one search runs at a time,
+	 * starting another (or calling findPath()) abandons the one in progress.
+	 * 
+	 * @param mover The entity that will be moving along the path
+	 * @param sx The x coordinate of the start location
+	 * @param sy The y coordinate of the start location
+	 * @param tx The x coordinate of the target location
+	 * @param ty The y coordinate of the target location
+	 * @see PathFinder#continueSearch(int)
+	 */
+	public void startSearch(Actor mover, int sx, int sy, int tx, int ty) {
+		expandedNodes = 0;
+		searchActive = false;
+		searchJunctions = false;
+		searchBidirectional = false;
+		searchResult = null;
+		
+		// easy first check, if the destination is blocked, we can't get there
+		
 		if (!map.canMove(mover, tx, ty)) {
-			return null;
+			return;
+		}
+		
+		// jump point search and the junction graph rely on every move costing
+		
+		// the same, anything else has to go through plain A*. Jump point
+		
+		// pruning also assumes the only way into a tile is from next door, so
+		
+		// maps with teleports are searched with plain A* too
+		if ((junctions != null) && map.hasUniformCost()) {
+			junctions.startSearch(sx, sy, tx, ty);
+			searchJunctions = true;
+			searchActive = true;
+			return;
 		}
+		searchJumpPoints = (searchMode == SEARCH_JPS) && map.hasUniformCost() && (map.getNumPortals() == 0);
+		
+		// initial state for A*. Moving to a new generation empties both the
+		
+		// open and closed groups. Only the starting tile is in the open list
+		nextGeneration();
+		openSize = 0;
+		searchDepth = 0;
+		searchMover = mover;
+		startX = sx;
+		startY = sy;
+		startIdx = map.getCollisionIndex(sx, sy);
+		targetX = tx;
+		targetY = ty;
 		
-		// initial state for A*. The closed group is empty. Only the starting
+		searchStart = (sy * width) + sx;
+		searchTarget = (ty * width) + tx;
+		
+		// in bidirectional mode, long searches across a map with uniform costs run from both ends
+		if ((searchMode == SEARCH_BIDIRECTIONAL) && map.hasUniformCost() && (searchStart != searchTarget)
+				&& (getHeuristicCost(mover, sx, sy, tx, ty) > bidirectionalDistance)) {
+			startBidirectional();
+			return;
+		}
+		
+		touch(searchStart);
+		cost[searchStart] = 0;
+		depth[searchStart] = 0;
+		heuristicCost[searchStart] = getHeuristicCost(mover, sx, sy, tx, ty);
+		addToOpen(searchStart);
+		searchActive = true;
+	}
 
-		// tile is in the open list and it'e're already there
-		nodes[sx][sy].cost = 0;
-		nodes[sx][sy].depth = 0;
-		closed.clear();
-		open.clear();
-		open.add(nodes[sx][sy]);
+	/**
+	 * Expand at most maxNodes more nodes of the search started by startSearch().
+	 * The path is built as soon as the search runs out of nodes worth expanding,
+	 * even if that takes no expansions at all.
+	 * 
+	 * @param maxNodes The most nodes to expand in this call
+	 * @return The number of nodes expanded
+	 */
+	public int continueSearch(int maxNodes) {
+		if (searchJunctions) {
+			int expanded = junctions.continueSearch(maxNodes);
+			expandedNodes = junctions.getLastSearchExpansions();
+			if (junctions.isSearchDone()) {
+				searchResult = junctions.getSearchResult();
+				searchActive = false;
+			}
+			return expanded;
+		}
+		if (searchBidirectional) {
+			return continueBidirectional(maxNodes);
+		}
 		
-		nodes[tx][ty].parent = null;
+		int expanded = 0;
 		
 		// while we haven'n't exceeded our max search depth
-		int maxDepth = 0;
-		while ((maxDepth < maxSearchDistance) && (open.size() != 0)) {
-			// pull out the first node in our open list, this is determined to 
-
-			// be the most likely to be the next step based on our heuristic
-
-			Node current = getFirstInOpen();
-			if (current == nodes[tx][ty]) {
+		while (searchActive) {
+			if ((searchDepth >= maxSearchDistance) || (openSize == 0) || (open[0] == searchTarget)) {
+				finishSearch();
+				break;
+			}
+			if (expanded == maxNodes) {
 				break;
 			}
 			
+			// pull out the first node in our open list, this is determined to
+			
+			// be the most likely to be the next step based on our heuristic
+			
+			int current = open[0];
 			removeFromOpen(current);
-			addToClosed(current);
+			status[current] = STATUS_CLOSED;
+			expandedNodes++;
+			expanded++;
 			
-			// search through all the neighbours of the current node evaluating
-
-			// them as next steps
-
-			for (int x=-1;x<2;x++) {
-				for (int y=-1;y<2;y++) {
-					// not a neighbour, its the current tile
+			if (searchJumpPoints) {
+				expandJumpPoints(current);
+			} else {
+				expandNeighbours(current);
+			}
+		}
+		
+		return expanded;
+	}
 
-					if ((x == 0) && (y == 0)) {
-						continue;
-					}
-					
-					// if we're not allowing diaganol movement then only 
+	/**
+	 * Check if the search started by startSearch() has finished
+	 * 
+	 * @return True if there is nothing left to expand
+	 */
+	public boolean isSearchDone() {
+		return !searchActive;
+	}
 
-					// one of x or y can be set
+	/**
+	 * Get the path found by the search started by startSearch()
+	 * 
+	 * @return The path found from start to end, or null if the search isn't
+	 * done or no path could be found
+	 */
+	public Path getSearchResult() {
+		return searchActive ? null : searchResult;
+	}
 
-					if (!allowDiagMovement) {
-						if ((x != 0) && (y != 0)) {
-							continue;
-						}
-					}
-					
-					// determine the location of the neighbour and evaluate it
+	/**
+	 * Get the estimated distance beyond which SEARCH_BIDIRECTIONAL searches are
+	 * run as a breadth first search from both ends
+	 * 
+	 * @return The distance in tiles, as measured by the heuristic
+	 */
+	public int getBidirectionalDistance() {
+		return bidirectionalDistance;
+	}
 
-					int xp = x + current.x;
-					int yp = y + current.y;
-					
-					if (isValidLocation(mover,sx,sy,xp,yp)) {
-						// the cost to get to this node is cost the current plus the movement
+	/**
+	 * Set the estimated distance beyond which SEARCH_BIDIRECTIONAL searches are
+	 * run as a breadth first search from both ends. Only maps with uniform move
+	 * costs are searched this way, and other search modes never are
+	 * 
+	 * @param distance The distance in tiles as measured by the heuristic,
+	 * Integer.MAX_VALUE to always use A*
+	 */
+	public void setBidirectionalDistance(int distance) {
+		bidirectionalDistance = distance;
+	}
 
-						// cost to reach this node. Note that the heursitic value is only used
+	/**
+	 * Get the search algorithm this path finder was created with
+	 * 
+	 * @return SEARCH_ASTAR, SEARCH_JPS, SEARCH_JUNCTIONS or SEARCH_BIDIRECTIONAL
+	 */
+	public int getSearchMode() {
+		return searchMode;
+	}
 
-						// in the sorted open list
+	/**
+	 * Get the number of nodes that were expanded (moved to the closed list)
+	 * by the last call to findPath(). Useful for profiling the search.
+	 * 
+	 * @return The number of nodes expanded by the last search
+	 */
+	public int getLastSearchExpansions() {
+		return expandedNodes;
+	}
 
-						float nextStepCost = current.cost + getMovementCost(mover, current.x, current.y, xp, yp);
-						Node neighbour = nodes[xp][yp];
-						//map.pathFinderVisited(xp, yp);
-						
-						// if the new cost we've determined for this node is lower than 
+	/**
+	 * End the search in progress, building the path from the parent references
+	 * if the target was reached
+	 */
+	private void finishSearch() {
+		searchActive = false;
+		
+		// since we'e've run out of search
+		// there was no path. Just return null
+		
+		int start = searchStart;
+		int target = searchTarget;
+		if ((stamp[target] != generation) || (parent[target] < 0)) {
+			return;
+		}
+		
+		// At this point we've definitely found a path so we can uses the parent
+		
+		// references of the nodes to find out way from the target location back
+		
+		// to the start recording the nodes on the way. Jump points can be several
+		
+		// tiles apart so the straight (or diagonal) run between them is filled in.
+		
+		// Without jump points a gap can only be a teleport, which is one step
+		
+		Path path = new Path(depth[target] + 1, true);
+		int node = target;
+		while (node != start) {
+			int from = parent[node];
+			int x = node % width;
+			int y = node / width;
+			if (!searchJumpPoints) {
+				path.prependStep(x, y);
+				node = from;
+				continue;
+			}
+			
+			int fx = from % width;
+			int fy = from / width;
+			int stepX = Integer.signum(fx - x);
+			int stepY = Integer.signum(fy - y);
+			while ((x != fx) || (y != fy)) {
+				path.prependStep(x, y);
+				x += stepX;
+				y += stepY;
+			}
+			node = from;
+		}
+		path.prependStep(startX,startY);
+		
+		// thats it, we have our path
+		
+		searchResult = path;
+	}
 
-						// it has been previously makes sure the node hasn'e've
-						// determined that there might have been a better path to get to
+	/**
+	 * Start a breadth first search out from both the start and the target. On
+	 * a map where every move costs the same, two searches meeting in the middle
+	 * cover far less of the map than one search going all the way across
+	 */
+	private void startBidirectional() {
+		searchBidirectional = true;
+		meetNode = -1;
+		meetLength = Integer.MAX_VALUE;
+		
+		touch(searchStart);
+		status[searchStart] = STATUS_FORWARD;
+		depth[searchStart] = 0;
+		open[0] = searchStart;
+		
+		touch(searchTarget);
+		status[searchTarget] = STATUS_BACKWARD;
+		backDepth[searchTarget] = 0;
+		backParent[searchTarget] = -1;
+		backQueue[0] = searchTarget;
+		
+		for (int i = 0; i < 2; i++) {
+			queueHead[i] = 0;
+			queueTail[i] = 1;
+			layerEnd[i] = 1;
+			layers[i] = 0;
+		}
+		side = 0;
+		searchActive = true;
+	}
 
-						// this node so it needs to be re-evaluated
+	/**
+	 * Expand at most maxNodes more nodes of a bidirectional search. The two
+	 * sides take turns a whole layer at a time, the one with the smaller
+	 * frontier going next. Once a layer has joined the two searches up, the
+	 * shortest route is known by the end of that layer: any route left to find
+	 * would have to pass through nodes both sides have already reached.
+	 * 
+	 * @param maxNodes The most nodes to expand in this call
+	 * @return The number of nodes expanded
+	 */
+	private int continueBidirectional(int maxNodes) {
+		int expanded = 0;
+		
+		while (searchActive) {
+			// between layers, either stop or pick the side to grow next
+			if (queueHead[side] == layerEnd[side]) {
+				layers[side]++;
+				if ((meetNode >= 0) || (queueHead[0] == queueTail[0]) || (queueHead[1] == queueTail[1])
+						|| (layers[0] + layers[1] >= maxSearchDistance)) {
+					finishBidirectional();
+					break;
+				}
+				
+				side = ((queueTail[0] - queueHead[0]) <= (queueTail[1] - queueHead[1])) ? 0 : 1;
+				layerEnd[side] = queueTail[side];
+			}
+			if (expanded == maxNodes) {
+				break;
+			}
+			
+			int[] queue = (side == 0) ? open : backQueue;
+			int current = queue[queueHead[side]++];
+			expandedNodes++;
+			expanded++;
+			expandBidirectional(current, side == 0);
+		}
+		
+		return expanded;
+	}
 
-						if (nextStepCost < neighbour.cost) {
-							if (inOpenList(neighbour)) {
-								removeFromOpen(neighbour);
-							}
-							if (inClosedList(neighbour)) {
-								removeFromClosed(neighbour);
-							}
-						}
-						
-						// if the node hasn't already been processed and discarded then
+	/**
+	 * Reach every unreached neighbour of a node from one side of a
+	 * bidirectional search, noting any route that joins up with the other side.
+	 * The search from the target follows moves (and teleports) backwards.
+	 * 
+	 * @param current The index of the node being expanded
+	 * @param forward True if the node belongs to the search from the start
+	 */
+	private void expandBidirectional(int current, boolean forward) {
+		int cx = current % width;
+		int cy = current / width;
+		int idx = map.getCollisionIndex(cx, cy);
+		
+		for (int i=0;i<moveOffset.length;i++) {
+			if (isWalkable(idx + moveOffset[i])) {
+				reach(current, ((cy + moveY[i]) * width) + cx + moveX[i], forward);
+			}
+		}
+		
+		if (forward) {
+			int portal = map.getPortalAt(cx, cy);
+			if ((portal >= 0) && isValidLocation(searchMover,startX,startY,map.getPortalDestX(portal),map.getPortalDestY(portal))) {
+				reach(current, (map.getPortalDestY(portal) * width) + map.getPortalDestX(portal), true);
+			}
+		} else {
+			for (int i = 0; i < map.getNumPortals(); i++) {
+				if ((map.getPortalDestX(i) == cx) && (map.getPortalDestY(i) == cy)
+						&& isValidLocation(searchMover,startX,startY,map.getPortalX(i),map.getPortalY(i))) {
+					reach(current, (map.getPortalY(i) * width) + map.getPortalX(i), false);
+				}
+			}
+		}
+	}
 
-						// reset it's cost to our current cost and add it as a next possible
+	/**
+	 * Reach a node from one side of a bidirectional search if that side
+	 * hasn't been there yet
+	 * 
+	 * @param current The index of the node being expanded
+	 * @param neighbour The index of the node being reached
+	 * @param forward True if the node is reached by the search from the start
+	 */
+	private void reach(int current, int neighbour, boolean forward) {
+		touch(neighbour);
+		byte mine = forward ? STATUS_FORWARD : STATUS_BACKWARD;
+		if ((status[neighbour] & mine) != 0) {
+			return;
+		}
+		
+		status[neighbour] |= mine;
+		if (forward) {
+			depth[neighbour] = depth[current] + 1;
+			parent[neighbour] = current;
+			open[queueTail[0]++] = neighbour;
+		} else {
+			backDepth[neighbour] = backDepth[current] + 1;
+			backParent[neighbour] = current;
+			backQueue[queueTail[1]++] = neighbour;
+		}
+		
+		// the other side has been here already, so this is a complete route
+		if ((status[neighbour] & (STATUS_FORWARD | STATUS_BACKWARD)) == (STATUS_FORWARD | STATUS_BACKWARD)) {
+			int length = depth[neighbour] + backDepth[neighbour];
+			if (length < meetLength) {
+				meetLength = length;
+				meetNode = neighbour;
+			}
+		}
+	}
 
-						// step (i.e. to the open list)
+	/**
+	 * End a bidirectional search, joining the two halves of the best route
+	 * found at the node where they meet
+	 */
+	private void finishBidirectional() {
+		searchActive = false;
+		if (meetNode < 0) {
+			return;
+		}
+		
+		Path path = new Path(meetLength + 1);
+		for (int node = meetNode; node >= 0; node = parent[node]) {
+			path.prependStep(node % width, node / width);
+		}
+		for (int node = backParent[meetNode]; node >= 0; node = backParent[node]) {
+			path.appendStep(node % width, node / width);
+		}
+		
+		searchResult = path;
+	}
 
-						if (!inOpenList(neighbour) && !(inClosedList(neighbour))) {
-							neighbour.cost = nextStepCost;
-							neighbour.heuristic = getHeuristicCost(mover, xp, yp, tx, ty);
-							maxDepth = Math.max(maxDepth, neighbour.setParent(current));
-							addToOpen(neighbour);
-						}
-					}
-				}
+	/**
+	 * Plain A* expansion, evaluate every neighbour of the current node as a next step
+	 * 
+	 * @param current The index of the node being expanded
+	 */
+	private void expandNeighbours(int current) {
+		int cx = current % width;
+		int cy = current / width;
+		
+		int idx = map.getCollisionIndex(cx, cy);
+		
+		// search through all the neighbours of the current node evaluating
+		
+		// them as next steps
+		
+		for (int i=0;i<moveOffset.length;i++) {
+			// determine the location of the neighbour and evaluate it
+			
+			if (isWalkable(idx + moveOffset[i])) {
+				int xp = cx + moveX[i];
+				int yp = cy + moveY[i];
+				
+				// the cost to get to this node is cost the current plus the movement
+				
+				// cost to reach this node. Note that the heursitic value is only used
+				
+				// in the sorted open list
+				
+				float nextStepCost = cost[current] + getMovementCost(searchMover, cx, cy, xp, yp);
+				relax(current, (yp * width) + xp, nextStepCost, 1);
+			}
+		}
+		
+		// a teleport on this tile is one more neighbour, wherever it leads
+		
+		int portal = map.getPortalAt(cx, cy);
+		if (portal >= 0) {
+			int xp = map.getPortalDestX(portal);
+			int yp = map.getPortalDestY(portal);
+			if (isValidLocation(searchMover,startX,startY,xp,yp)) {
+				relax(current, (yp * width) + xp, cost[current] + Map.PORTAL_COST, 1);
 			}
 		}
+	}
 
-		// since we'e've run out of search 
-		// there was no path. Just return null
+	/**
+	 * Jump point expansion. Only the directions that can't be reached as cheaply
+	 * without going through the current node are explored, and each of them is
+	 * followed in a straight line until something interesting (a jump point)
+	 * turns up. Only jump points make it into the open list.
+	 * 
+	 * @param current The index of the node being expanded
+	 */
+	private void expandJumpPoints(int current) {
+		int cx = current % width;
+		int cy = current / width;
+		
+		// the direction we travelled to get here, none for the start node
+		int dx = 0;
+		int dy = 0;
+		if (parent[current] >= 0) {
+			dx = Integer.signum(cx - (parent[current] % width));
+			dy = Integer.signum(cy - (parent[current] / width));
+		}
+		
+		int idx = map.getCollisionIndex(cx, cy);
+		
+		for (int i=0;i<moveOffset.length;i++) {
+			int x = moveX[i];
+			int y = moveY[i];
+			if (((dx != 0) || (dy != 0)) && !isJumpDirection(idx, dx, dy, x, y)) {
+				continue;
+			}
+			
+			int jumpPoint = jump(cx + x, cy + y, x, y);
+			if (jumpPoint >= 0) {
+				// the run to a jump point is straight (or purely diagonal) and
+				
+				// every step costs the same, so its length is the cost
+				int steps = Math.max(Math.abs((jumpPoint % width) - cx), Math.abs((jumpPoint / width) - cy));
+				relax(current, jumpPoint, cost[current] + steps, steps);
+			}
+		}
+	}
 
-		if (nodes[tx][ty].parent == null) {
-			return null;
+	/**
+	 * Check if a direction survives jump point pruning. Natural neighbours lie
+	 * ahead of the direction of travel, forced neighbours sit behind a wall
+	 * that blocks the cheaper route around the current node.
+	 * 
+	 * @param idx The collision index of the current node
+	 * @param dx The x direction of travel into the current node
+	 * @param dy The y direction of travel into the current node
+	 * @param x The x direction being considered
+	 * @param y The y direction being considered
+	 * @return True if the direction needs to be explored
+	 */
+	private boolean isJumpDirection(int idx, int dx, int dy, int x, int y) {
+		if (!allowDiagMovement) {
+			// never go straight back, turning is always allowed since turns
+			
+			// are only taken from jump points
+			return (x != -dx) || (y != -dy);
 		}
 		
-		// At this point we've definitely found a path so we can uses the parent
+		if ((dx != 0) && (dy != 0)) {
+			// diagonal, the three moves ahead are natural
+			if (((x == dx) || (x == 0)) && ((y == dy) || (y == 0))) {
+				return true;
+			}
+			
+			// forced by a wall behind us on either side
+			if ((x == -dx) && (y == dy)) {
+				return !isWalkable(idx - dx);
+			}
+			if ((x == dx) && (y == -dy)) {
+				return !isWalkable(idx - (dy * stride));
+			}
+			return false;
+		}
+		
+		if (dx != 0) {
+			// horizontal, only straight on is natural
+			if ((x == dx) && (y == 0)) {
+				return true;
+			}
+			return (x == dx) && (y != 0) && !isWalkable(idx + (y * stride));
+		}
+		
+		// vertical
+		if ((x == 0) && (y == dy)) {
+			return true;
+		}
+		return (y == dy) && (x != 0) && !isWalkable(idx + x);
+	}
 
-		// references of the nodes to find out way from the target location back
+	/**
+	 * Travel from (x,y) in the given direction until we find a jump point, the
+	 * target or a blockage
+	 * 
+	 * @param x The x coordinate to start from
+	 * @param y The y coordinate to start from
+	 * @param dx The x direction of travel
+	 * @param dy The y direction of travel
+	 * @return The index of the jump point we found, -1 if there isn't one
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		int target = (targetY * width) + targetX;
+		
+		// walk the collision layer alongside, up and down a row is a whole stride
+		int idx = map.getCollisionIndex(x, y);
+		int step = (dy * stride) + dx;
+		
+		while (true) {
+			if (!isWalkable(idx)) {
+				return -1;
+			}
+			
+			int node = (y * width) + x;
+			if (node == target) {
+				return node;
+			}
+			
+			if (!allowDiagMovement) {
+				if (dx != 0) {
+					// moving sideways, a corridor opening up above or below is where we may need to turn
+					if ((isWalkable(idx - stride) && !isWalkable(idx - dx - stride)) || (isWalkable(idx + stride) && !isWalkable(idx - dx + stride))) {
+						return node;
+					}
+				} else {
+					if ((isWalkable(idx - 1) && !isWalkable(idx - 1 - step)) || (isWalkable(idx + 1) && !isWalkable(idx + 1 - step))) {
+						return node;
+					}
+					
+					// moving vertically, any jump point reachable sideways makes this a turning point
+					if ((jump(x + 1, y, 1, 0) >= 0) || (jump(x - 1, y, -1, 0) >= 0)) {
+						return node;
+					}
+				}
+			} else if ((dx != 0) && (dy != 0)) {
+				if ((isWalkable(idx - dx + (dy * stride)) && !isWalkable(idx - dx)) || (isWalkable(idx + dx - (dy * stride)) && !isWalkable(idx - (dy * stride)))) {
+					return node;
+				}
+				
+				// moving diagonally, any jump point along either straight component makes this a turning point
+				if ((jump(x + dx, y, dx, 0) >= 0) || (jump(x, y + dy, 0, dy) >= 0)) {
+					return node;
+				}
+			} else if (dx != 0) {
+				if ((isWalkable(idx + dx + stride) && !isWalkable(idx + stride)) || (isWalkable(idx + dx - stride) && !isWalkable(idx - stride))) {
+					return node;
+				}
+			} else {
+				if ((isWalkable(idx + 1 + step) && !isWalkable(idx + 1)) || (isWalkable(idx - 1 + step) && !isWalkable(idx - 1))) {
+					return node;
+				}
+			}
+			
+			x += dx;
+			y += dy;
+			idx += step;
+		}
+	}
 
-		// to the start recording the nodes on the way.
+	/**
+	 * Check if the mover of the current search could stand on a tile. The map
+	 * has no rules for particular movers, so this is the collision layer, whose
+	 * blocked border stops searches running off the map without bounds checks.
+	 * The start location is always valid, as in isValidLocation()
+	 * 
+	 * @param idx The collision index of the tile to check
+	 * @return True if the location is valid for the mover
+	 * @see Map#isWalkableIdx(int)
+	 */
+	private boolean isWalkable(int idx) {
+		return (idx == startIdx) || map.isWalkableIdx(idx);
+	}
+	
+	/**
+	 * Work out the moves tried from each node: the four neighbours in the
+	 * order of the map's neighbour offsets, then the diagonals if they're allowed
+	 */
+	private void buildMoves() {
+		int[] offsets = map.getNeighbourOffsets();
+		int moves = allowDiagMovement ? 8 : 4;
+		moveX = new int[moves];
+		moveY = new int[moves];
+		moveOffset = new int[moves];
+		
+		int[] dirX = { 0, 1, 0, -1, 1, 1, -1, -1 };
+		int[] dirY = { -1, 0, 1, 0, -1, 1, 1, -1 };
+		for (int i=0;i<moves;i++) {
+			moveX[i] = dirX[i];
+			moveY[i] = dirY[i];
+			moveOffset[i] = (i < 4) ? offsets[i] : (dirY[i] * stride) + dirX[i];
+		}
+	}
 
-		Path path = new Path();
-		Node target = nodes[tx][ty];
-		while (target != nodes[sx][sy]) {
-			path.prependStep(target.x, target.y);
-			target = target.parent;
+	/**
+	 * Offer a new route to a node, opening it or decreasing its key if the route
+	 * is cheaper than what we had
+	 * 
+	 * @param current The index of the node the route comes from
+	 * @param neighbour The index of the node the route leads to
+	 * @param nextStepCost The total cost of reaching the neighbour through current
+	 * @param steps The number of tiles between current and the neighbour
+	 */
+	private void relax(int current, int neighbour, float nextStepCost, int steps) {
+		touch(neighbour);
+		
+		// if the new cost we've determined for this node is lower than
+		
+		// it has been previously makes sure the node hasn'e've
+		// determined that there might have been a better path to get to
+		
+		// this node so it needs to be re-evaluated. A node still in the
+		
+		// open list just has its key decreased in place
+		
+		if (status[neighbour] == STATUS_OPEN) {
+			if (nextStepCost < cost[neighbour]) {
+				cost[neighbour] = nextStepCost;
+				searchDepth = Math.max(searchDepth, setParent(neighbour, current, steps));
+				siftUp(openSlot[neighbour]);
+			}
+			return;
+		}
+		if ((status[neighbour] == STATUS_CLOSED) && (nextStepCost >= cost[neighbour])) {
+			return;
 		}
-		path.prependStep(sx,sy);
 		
-		// thats it, we have our path 
+		// if the node hasn't already been processed and discarded then
+		
+		// reset it's cost to our current cost and add it as a next possible
+		
+		// step (i.e. to the open list)
+		
+		cost[neighbour] = nextStepCost;
+		heuristicCost[neighbour] = getHeuristicCost(searchMover, neighbour % width, neighbour / width, targetX, targetY);
+		searchDepth = Math.max(searchDepth, setParent(neighbour, current, steps));
+		addToOpen(neighbour);
+	}
 
-		return path;
+	/**
+	 * Start a new search generation, making the state of every node stale
+	 */
+	private void nextGeneration() {
+		generation++;
+		
+		// on the (very) rare wrap around old stamps could look current again
+		if (generation == 0) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
 	}
 
 	/**
-	 * Get the first element from the open list. This is the next
-	 * one to be searched.
+	 * Make sure the state of a node belongs to the current search, resetting
+	 * it if it was left over from a previous one
 	 * 
-	 * @return The first element in the open list
+	 * @param node The index of the node
 	 */
-	protected Node getFirstInOpen() {
-		return (Node) open.first();
+	private void touch(int node) {
+		if (stamp[node] != generation) {
+			stamp[node] = generation;
+			status[node] = 0;
+			cost[node] = Float.MAX_VALUE;
+			parent[node] = -1;
+			depth[node] = 0;
+		}
 	}
-	
+
 	/**
-	 * Add a node to the open list
+	 * Set the parent of a node
 	 * 
-	 * @param node The node to be added to the open list
+	 * @param node The index of the node
+	 * @param from The index of the parent node which lead us to this node
+	 * @param steps The number of tiles between the parent and this node
+	 * @return The depth we have no reached in searching
 	 */
-	protected void addToOpen(Node node) {
-		open.add(node);
+	private int setParent(int node, int from, int steps) {
+		depth[node] = depth[from] + steps;
+		parent[node] = from;
+		
+		return depth[node];
 	}
-	
+
 	/**
-	 * Check if a node is in the open list
+	 * Add a node to the open list
 	 * 
-	 * @param node The node to check for
-	 * @return True if the node given is in the open list
+	 * @param node The index of the node to be added to the open list
 	 */
-	protected boolean inOpenList(Node node) {
-		return open.contains(node);
+	private void addToOpen(int node) {
+		status[node] = STATUS_OPEN;
+		open[openSize] = node;
+		openSlot[node] = openSize;
+		openSize++;
+		siftUp(openSize - 1);
 	}
-	
+
 	/**
 	 * Remove a node from the open list
 	 * 
-	 * @param node The node to remove from the open list
+	 * @param node The index of the node to remove from the open list
 	 */
-	protected void removeFromOpen(Node node) {
-		open.remove(node);
+	private void removeFromOpen(int node) {
+		int slot = openSlot[node];
+		status[node] = 0;
+		openSize--;
+		if (slot == openSize) {
+			return;
+		}
+		
+		int last = open[openSize];
+		open[slot] = last;
+		openSlot[last] = slot;
+		siftDown(slot);
+		siftUp(openSlot[last]);
 	}
-	
+
 	/**
-	 * Add a node to the closed list
+	 * Compare two nodes by their estimated total cost. On equal estimates the node
+	 * closer to the target wins, this keeps the search pushing forward instead of
+	 * widening the front
 	 * 
-	 * @param node The node to add to the closed list
+	 * @param a The index of the first node
+	 * @param b The index of the second node
+	 * @return True if node a should be searched before node b
 	 */
-	protected void addToClosed(Node node) {
-		closed.add(node);
+	private boolean isBetter(int a, int b) {
+		float fa = cost[a] + heuristicCost[a];
+		float fb = cost[b] + heuristicCost[b];
+		
+		if (fa != fb) {
+			return fa < fb;
+		}
+		return heuristicCost[a] < heuristicCost[b];
 	}
-	
+
 	/**
-	 * Check if the node supplied is in the closed list
+	 * Move the node at the given open list slot towards the root until its parent is no worse
 	 * 
-	 * @param node The node to search for
-	 * @return True if the node specified is in the closed list
+	 * @param slot The slot of the node to move
 	 */
-	protected boolean inClosedList(Node node) {
-		return closed.contains(node);
+	private void siftUp(int slot) {
+		int node = open[slot];
+		while (slot > 0) {
+			int up = (slot - 1) >> 1;
+			if (!isBetter(node, open[up])) {
+				break;
+			}
+			open[slot] = open[up];
+			openSlot[open[slot]] = slot;
+			slot = up;
+		}
+		open[slot] = node;
+		openSlot[node] = slot;
 	}
-	
+
 	/**
-	 * Remove a node from the closed list
+	 * Move the node at the given open list slot towards the leaves until no child is better
 	 * 
-	 * @param node The node to remove from the closed list
+	 * @param slot The slot of the node to move
 	 */
-	protected void removeFromClosed(Node node) {
-		closed.remove(node);
+	private void siftDown(int slot) {
+		int node = open[slot];
+		int half = openSize >> 1;
+		while (slot < half) {
+			int child = (slot << 1) + 1;
+			if ((child + 1 < openSize) && isBetter(open[child + 1], open[child])) {
+				child++;
+			}
+			if (!isBetter(open[child], node)) {
+				break;
+			}
+			open[slot] = open[child];
+			openSlot[open[slot]] = slot;
+			slot = child;
+		}
+		open[slot] = node;
+		openSlot[node] = slot;
 	}
-	
+
 	/**
 	 * Check if a given location is valid for the supplied mover
 	 * 
@@ -291,7 +1060,7 @@ public class PathFinder {
 		
 		return !invalid;
 	}
-	
+
 	/**
 	 * Get the cost to move through a given location
 	 * 
@@ -307,7 +1076,7 @@ public class PathFinder {
 	}
 
 	/**
-	 * Get the heuristic cost for the given location. This determines in which 
+	 * Get the heuristic cost for the given location. This determines in which
 	 * order the locations are processed.
 	 * 
 	 * @param mover The entity that is being moved
@@ -320,128 +1089,4 @@ public class PathFinder {
 	public float getHeuristicCost(Actor mover, int x, int y, int tx, int ty) {
 		return heuristic.getCost(map, mover, x, y, tx, ty);
 	}
-	
-	/**
-	 * A simple sorted list
-	 *
-	 * @author kevin
-	 */
-	private class SortedList {
-		/** The list of elements */
-		private ArrayList list = new ArrayList();
-		
-		/**
-		 * Retrieve the first element from the list
-		 *  
-		 * @return The first element from the list
-		 */
-		public Object first() {
-			return list.get(0);
-		}
-		
-		/**
-		 * Empty the list
-		 */
-		public void clear() {
-			list.clear();
-		}
-		
-		/**
-		 * Add an element to the list - causes sorting
-		 * 
-		 * @param o The element to add
-		 */
-		public void add(Object o) {
-			list.add(o);
-			Collections.sort(list);
-		}
-		
-		/**
-		 * Remove an element from the list
-		 * 
-		 * @param o The element to remove
-		 */
-		public void remove(Object o) {
-			list.remove(o);
-		}
-	
-		/**
-		 * Get the number of elements in the list
-		 * 
-		 * @return The number of element in the list
- 		 */
-		public int size() {
-			return list.size();
-		}
-		
-		/**
-		 * Check if an element is in the list
-		 * 
-		 * @param o The element to search for
-		 * @return True if the element is in the list
-		 */
-		public boolean contains(Object o) {
-			return list.contains(o);
-		}
-	}
-	
-	/**
-	 * A single node in the search graph
-	 */
-	private class Node implements Comparable<Object> {
-		/** The x coordinate of the node */
-		private int x;
-		/** The y coordinate of the node */
-		private int y;
-		/** The path cost for this node */
-		private float cost;
-		/** The parent of this node, how we reached it in the search */
-		private Node parent;
-		/** The heuristic cost of this node */
-		private float heuristic;
-		/** The search depth of this node */
-		private int depth;
-		
-		/**
-		 * Create a new node
-		 * 
-		 * @param x The x coordinate of the node
-		 * @param y The y coordinate of the node
-		 */
-		public Node(int x, int y) {
-			this.x = x;
-			this.y = y;
-		}
-		
-		/**
-		 * Set the parent of this node
-		 * 
-		 * @param parent The parent node which lead us to this node
-		 * @return The depth we have no reached in searching
-		 */
-		public int setParent(Node parent) {
-			depth = parent.depth + 1;
-			this.parent = parent;
-			
-			return depth;
-		}
-		
-		/**
-		 * @see Comparable#compareTo(Object)
-		 */
-		public int compareTo(Object other) {
-			Node o = (Node) other;
-			
-			float f = heuristic + cost;
-			float of = o.heuristic + o.cost;
-			
-			if (f < of) {
-				return -1;
-			} else if (f > of) {
-				return 1;
-			} else {
-				return 0;
-			}
-		}
-	}
 }
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+
+/**
+ * Runs ghost path searches a slice at a time so the path finding done in a single tick never expands more than a
+ * fixed number of nodes, however big the map is. Waiting requests share the budget in priority order, one search at
+ * a time. A search that doesn't finish carries on next tick while its ghost keeps following the path it already has.
+ * 
+ * 
+ */
+public class PathScheduler {
+	// References
+	private PathFinder finder;
+	
+	// Logic
+	private int nodeBudget;
+	private ArrayList<Request> waiting;
+	private Request active;
+	private int lastTickExpansions;
+	
+	/**
+	 * Class Constructor
+	 * 
+	 * @param f Path finder the searches are run with. It shouldn't be used for anything else while a search is in progress
+	 * @param budget Most nodes to expand per tick, across all searches
+	 */
+	public PathScheduler(PathFinder f, int budget) {
+		finder = f;
+		nodeBudget = budget;
+		waiting = new ArrayList<Request>();
+		active = null;
+		lastTickExpansions = 0;
+	}
+
+	// Getters and Setters
+	
+	/**
+	 * Get the most nodes expanded per tick
+	 * 
+	 * @return Node budget
+	 */
+	public int getNodeBudget() {
+		return nodeBudget;
+	}
+
+	/**
+	 * Set the most nodes expanded per tick
+	 * 
+	 * @param budget Node budget
+	 */
+	public void setNodeBudget(int budget) {
+		nodeBudget = budget;
+	}
+
+	/**
+	 * Number of nodes expanded by the last call to process()
+	 * 
+	 * @return Number of nodes expanded
+	 */
+	public int getLastTickExpansions() {
+		return lastTickExpansions;
+	}
+
+	/**
+	 * Number of requests waiting or being searched
+	 * 
+	 * @return Number of requests
+	 */
+	public int getNumPending() {
+		return waiting.size() + (active != null ? 1 : 0);
+	}
+
+	/**
+	 * Check if a ghost has a path request waiting or being searched
+	 * 
+	 * @param g The ghost
+	 * @return True if the ghost is waiting on a path
+	 */
+	public boolean isPending(Ghost g) {
+		if(active != null && active.ghost == g)
+			return true;
+		for(Request r : waiting) {
+			if(r.ghost == g)
+				return true;
+		}
+		return false;
+	}
+
+	// Public Methods
+	
+	/**
+	 * Ask for a path for a ghost. The path is handed to Ghost.queuePath() once found, so it should start where the
+	 * ghost's current path ends. Any request the ghost already has is dropped
+	 * 
+	 * @param g The ghost
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @param priority Lower values are searched first, requests with the same priority are searched in the order they were made
+	 * @see Ghost#queuePath(Path)
+	 */
+	public void request(Ghost g, int sx, int sy, int tx, int ty, int priority) {
+		cancel(g);
+		waiting.add(new Request(g, sx, sy, tx, ty, priority));
+	}
+
+	/**
+	 * Drop any request a ghost has. A search in progress for it is abandoned
+	 * 
+	 * @param g The ghost
+	 */
+	public void cancel(Ghost g) {
+		if(active != null && active.ghost == g)
+			active = null;
+		for(int i = 0; i < waiting.size(); i++) {
+			if(waiting.get(i).ghost == g) {
+				waiting.remove(i);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Drop every request
+	 */
+	public void clear() {
+		active = null;
+		waiting.clear();
+	}
+
+	/**
+	 * Spend this tick's node budget on the waiting requests. Finished paths are handed to their ghosts straight away
+	 */
+	public void process() {
+		int budget = nodeBudget;
+		lastTickExpansions = 0;
+		
+		while(true) {
+			// Start the most urgent waiting request
+			if(active == null) {
+				active = takeNext();
+				if(active == null)
+					break;
+				finder.startSearch(active.ghost, active.sx, active.sy, active.tx, active.ty);
+			}
+			
+			// A search can still finish without a budget if it has nothing left worth expanding
+			int expanded = finder.continueSearch(budget);
+			budget -= expanded;
+			lastTickExpansions += expanded;
+			if(!finder.isSearchDone())
+				break;
+			
+			active.ghost.queuePath(finder.getSearchResult());
+			active = null;
+		}
+	}
+
+	// Private Methods
+	
+	/**
+	 * Remove the most urgent waiting request
+	 * 
+	 * @return The request, null if nothing is waiting
+	 */
+	private Request takeNext() {
+		int best = -1;
+		for(int i = 0; i < waiting.size(); i++) {
+			if(best < 0 || waiting.get(i).priority < waiting.get(best).priority)
+				best = i;
+		}
+		if(best < 0)
+			return null;
+		return waiting.remove(best);
+	}
+
+	/**
+	 * A ghost waiting on a path
+	 */
+	private class Request {
+		private Ghost ghost;
+		private int sx;
+		private int sy;
+		private int tx;
+		private int ty;
+		private int priority;
+		
+		/**
+		 * Class Constructor
+		 * 
+		 * @param g The ghost
+		 * @param sx Start X coordinate
+		 * @param sy Start Y coordinate
+		 * @param tx Target X coordinate
+		 * @param ty Target Y coordinate
+		 * @param p Priority, lower first
+		 */
+		public Request(Ghost g, int sx, int sy, int tx, int ty, int p) {
+			ghost = g;
+			this.sx = sx;
+			this.sy = sy;
+			this.tx = tx;
+			this.ty = ty;
+			priority = p;
+		}
+	}
+}
@@ -11,7 +11,7 @@ public class Player extends Actor {
 	// State
 	private int m_iScore; // Current score - Only valid for the current life / level. StateGame will pull this on death or on level change
 	private boolean isPowered; // Powered up
-	private long poweredExpireTime;
+	private int poweredTicks; // Ticks until the powerup wears off
 	
 	/**
 	 * Class Constructor for Player
@@ -26,7 +26,7 @@ public class Player extends Actor {
 		// State
 		m_iScore = 0;
 		isPowered = false;
-		poweredExpireTime = 0;
+		poweredTicks = 0;
 	}
 	
 	// Getters and Setters
@@ -69,7 +69,7 @@ public class Player extends Actor {
 		isPowered = x;
 		// If powered up, start the timer and increase speed temporarily
 		if(isPowered) {
-			poweredExpireTime = System.currentTimeMillis() + 10000;
+			poweredTicks = 10 * Game.TICK_RATE;
 			speed = 6;
 		} else {
 			speed = 5;
@@ -84,9 +84,11 @@ public class Player extends Actor {
 	 * - a next movement
 	 */
 	public void act() {
-		// If there is a ghost at the players location, this player is dead unless the player is powered up (then the ghost dies)
-		Actor a = map.getActor(positionX, positionY, true);
-		if(a != null && a.getType() == GameObject.OBJECT_GHOST) {
+		// If there are ghosts at the players location, this player is dead unless the player is powered up (then every one of them dies)
+		for(Actor a = map.getActorAt(positionX, positionY); a != null; a = a.getNextOnTile()) {
+			if(a.getType() != GameObject.OBJECT_GHOST)
+				continue;
+			
 			// Notify the State of the loss if pacman isn't powered up
 			if(!isPowered) {
 				setDead(true);
@@ -97,7 +99,7 @@ public class Player extends Actor {
 		}
 		
 		// Check for powerup expire
-		if(System.currentTimeMillis() > poweredExpireTime) {
+		if(isPowered && --poweredTicks <= 0) {
 			setPowerUp(false);
 		}
 		
@@ -114,10 +116,13 @@ public class Player extends Actor {
 		// Based on the direction, increment the movement delta and set the appropriate orientation
 		// The delta's represent the screen position (in pixels) since the last official change in position on the grid
 		// When a delta in a certain direction passes the CELL_SIZE, the object can change position in the map grid. This makes for smooth transitions between tiles
+		// The next tile is looked up on the collision layer, whose border keeps the player on the map
+		int here = map.getCollisionIndex(positionX, positionY);
+		int[] next = map.getNeighbourOffsets();
 		switch(moveDir) {
 			case MOVE_UP:
 				// The next position is blocked, so stand still
-				if(!map.canMove(this, positionX, positionY-1)) {
+				if(!map.isWalkableIdx(here + next[0])) {
 					deltaX = 0;
 					deltaY = 0;
 				} else { // We can continue to move
@@ -132,7 +137,7 @@ public class Player extends Actor {
 				dirOrient = 90;
 				break;
 			case MOVE_RIGHT:
-				if(!map.canMove(this, positionX+1, positionY)) {
+				if(!map.isWalkableIdx(here + next[1])) {
 					deltaX = 0;
 					deltaY = 0;
 				} else {
@@ -146,7 +151,7 @@ public class Player extends Actor {
 				dirOrient = 0;
 				break;
 			case MOVE_DOWN:
-				if(!map.canMove(this, positionX, positionY+1)) {
+				if(!map.isWalkableIdx(here + next[2])) {
 					deltaX = 0;
 					deltaY = 0;
 				} else {
@@ -160,7 +165,7 @@ public class Player extends Actor {
 				dirOrient = -90;
 				break; 
 			case MOVE_LEFT:
-				if(!map.canMove(this, positionX-1, positionY)) {
+				if(!map.isWalkableIdx(here + next[3])) {
 					deltaX = 0;
 					deltaY = 0;
 				} else {
@@ -188,18 +193,14 @@ public class Player extends Actor {
 	 * @see Actor#act()
 	 */
 	public void paint(Graphics2D g) {
-		// Change the position of pacman on screen by the offsets m_fDelta
-		int screenX = (int)((map.CELL_SIZE * positionX) + deltaX);
-		int screenY = (int)((map.CELL_SIZE * positionY) + deltaY);
-			
-		g.setColor(objColor);
-
+		// Change the position of pacman on screen by the offsets m_fDelta, between ticks
+		int screenX = getScreenX();
+		int screenY = getScreenY();
+		
 		// Animate Pacman's mouth
 		// When the player is half-way through a tile, close the flap. Open it back up when the flap clears a tile.
 		// This essentially creates an eating animation
-		if((Math.abs(deltaX) >= map.CELL_SIZE/2) || Math.abs(deltaY) >= map.CELL_SIZE/2)
-			g.fillArc(screenX, screenY, map.CELL_SIZE, map.CELL_SIZE, 0+dirOrient, 360); // flap closed
-		else
-			g.fillArc(screenX, screenY, map.CELL_SIZE, map.CELL_SIZE, 35+dirOrient, 270);	
+		boolean closed = (Math.abs(deltaX) >= map.CELL_SIZE/2) || Math.abs(deltaY) >= map.CELL_SIZE/2;
+		SpriteAtlas.get(map.CELL_SIZE).drawPlayer(g, objColor, dirOrient, closed, screenX, screenY);
 	}
 }
@@ -0,0 +1,413 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A route table holds the distance and next step between every pair of walkable tiles on a map. The maze walls
+ * never change during a level, so the table is built once (a breadth first flood from every walkable tile) and
+ * path queries become a walk through the table instead of a search. Routes take teleports where they're shorter.
+ * 
+ * The table is persisted in a sidecar file next to the map (mapname.map.routes) keyed by a checksum of the
+ * collision layer and teleports. Later loads memory map the sidecar rather than rebuilding it. A sidecar that doesn't match
+ * the map any more is rebuilt and rewritten automatically.
+ * 
+ * 
+ */
+public class RouteTable {
+	// Sidecar file format
+	public static final String FILE_EXTENSION = ".routes";
+	private static final String FILE_MAGIC = "RKPACRTE";
+	private static final int FILE_VERSION = 2;
+	
+	// Neighbour offsets in the order up, right, down, left and the direction that steps back from each neighbour
+	private static final int[] NEIGHBOUR_DX = { 0, 1, 0, -1 };
+	private static final int[] NEIGHBOUR_DY = { -1, 0, 1, 0 };
+	private static final byte[] REVERSE_STEP = { Actor.MOVE_DOWN, Actor.MOVE_LEFT, Actor.MOVE_UP, Actor.MOVE_RIGHT };
+	
+	// Tables bigger than this are not worth building (the table grows with the square of the walkable tiles)
+	public static final int MAX_CELLS = 4096;
+	
+	// Map parameters
+	private int mapWidth;
+	private int mapHeight;
+	
+	// Dense numbering of the walkable tiles. cellIndex is -1 for walls
+	private int[] cellIndex;
+	private int numCells;
+	
+	// Teleports, as entrance and destination tile indices
+	private int[] portalFrom;
+	private int[] portalTo;
+	
+	// Tables indexed by target*numCells+source
+	private ShortBuffer distance; // Steps from source to target, -1 if unreachable
+	private ByteBuffer nextStep; // Actor.MOVE_* direction to take from source towards target
+	
+	/**
+	 * Class Constructor. Use load() to get a table for a map
+	 * 
+	 * @param m The map the table describes
+	 */
+	private RouteTable(Map m) {
+		mapWidth = m.getWidth();
+		mapHeight = m.getHeight();
+		
+		// Number the walkable tiles
+		cellIndex = new int[mapWidth * mapHeight];
+		numCells = 0;
+		for(int y = 0; y < mapHeight; y++) {
+			int row = m.getCollisionIndex(0, y);
+			for(int x = 0; x < mapWidth; x++) {
+				if(m.isWalkableIdx(row + x))
+					cellIndex[(y * mapWidth) + x] = numCells++;
+				else
+					cellIndex[(y * mapWidth) + x] = -1;
+			}
+		}
+		
+		portalFrom = new int[m.getNumPortals()];
+		portalTo = new int[m.getNumPortals()];
+		for(int i = 0; i < portalFrom.length; i++) {
+			portalFrom[i] = (m.getPortalY(i) * mapWidth) + m.getPortalX(i);
+			portalTo[i] = (m.getPortalDestY(i) * mapWidth) + m.getPortalDestX(i);
+		}
+	}
+
+	/**
+	 * Get the route table for a map, memory mapping the sidecar file if it's up to date or building
+	 * (and saving) a new one otherwise
+	 * 
+	 * @param m The map loaded from filename
+	 * @param filename The file name of the map
+	 * @return The route table, null if the map is too big for one
+	 */
+	public static RouteTable load(Map m, String filename) {
+		RouteTable table = new RouteTable(m);
+		if(table.numCells == 0 || table.numCells > MAX_CELLS)
+			return null;
+		
+		long checksum = checksum(m);
+		File sidecar = new File(filename + FILE_EXTENSION);
+		if(sidecar.exists() && table.map(sidecar, checksum))
+			return table;
+		
+		table.build(m);
+		table.write(sidecar, checksum);
+		return table;
+	}
+
+	/**
+	 * Checksum of a map's dimensions, collision layer and teleports. Identifies the maze a sidecar file was built for
+	 * 
+	 * @param m The map
+	 * @return The checksum
+	 */
+	public static long checksum(Map m) {
+		CRC32 crc = new CRC32();
+		byte[] row = new byte[m.getWidth()];
+		
+		updateInt(crc, m.getWidth());
+		updateInt(crc, m.getHeight());
+		for(int y = 0; y < m.getHeight(); y++) {
+			for(int x = 0; x < m.getWidth(); x++)
+				row[x] = m.getCollidable(x, y);
+			crc.update(row, 0, row.length);
+		}
+		
+		updateInt(crc, m.getNumPortals());
+		for(int i = 0; i < m.getNumPortals(); i++) {
+			updateInt(crc, m.getPortalX(i));
+			updateInt(crc, m.getPortalY(i));
+			updateInt(crc, m.getPortalDestX(i));
+			updateInt(crc, m.getPortalDestY(i));
+		}
+		return crc.getValue();
+	}
+	
+	// Getters and Setters
+	
+	/**
+	 * Number of steps on the shortest route from (sx,sy) to (tx,ty)
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return The number of steps, -1 if there is no route or either tile isn't walkable
+	 */
+	public int getDistance(int sx, int sy, int tx, int ty) {
+		int s = getCell(sx, sy);
+		int t = getCell(tx, ty);
+		if(s < 0 || t < 0)
+			return -1;
+		return distance.get((t * numCells) + s);
+	}
+
+	/**
+	 * The direction to move from (sx,sy) to get one step closer to (tx,ty)
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return One of the Actor.MOVE_* constants. MOVE_NONE if there is no route or we're already there
+	 */
+	public int getNextStep(int sx, int sy, int tx, int ty) {
+		int s = getCell(sx, sy);
+		int t = getCell(tx, ty);
+		if(s < 0 || t < 0)
+			return Actor.MOVE_NONE;
+		return nextStep.get((t * numCells) + s);
+	}
+
+	// Public Methods
+	
+	/**
+	 * Walk the table from (sx,sy) to (tx,ty) and return the steps in the format Ghost.act() consumes
+	 * 
+	 * @param sx Start X coordinate
+	 * @param sy Start Y coordinate
+	 * @param tx Target X coordinate
+	 * @param ty Target Y coordinate
+	 * @return The path including the starting tile, null if there is no route or we're already there
+	 */
+	public Path getPath(int sx, int sy, int tx, int ty) {
+		int length = getDistance(sx, sy, tx, ty);
+		if(length <= 0)
+			return null;
+		
+		int row = getCell(tx, ty) * numCells;
+		Path path = new Path(length + 1, false);
+		int x = sx;
+		int y = sy;
+		path.appendStep(x, y);
+		for(int i = 0; i < length; i++) {
+			switch(nextStep.get(row + cellIndex[(y * mapWidth) + x])) {
+				case Actor.MOVE_UP:
+					y--;
+					break;
+				case Actor.MOVE_RIGHT:
+					x++;
+					break;
+				case Actor.MOVE_DOWN:
+					y++;
+					break;
+				case Actor.MOVE_TELEPORT:
+					int tile = getPortalDest((y * mapWidth) + x);
+					x = tile % mapWidth;
+					y = tile / mapWidth;
+					break;
+				default:
+					x--;
+					break;
+			}
+			path.appendStep(x, y);
+		}
+		
+		return path;
+	}
+
+	// Private Methods
+	
+	/**
+	 * Add all four bytes of an int to a checksum. CRC32.update(int) only takes the low byte, so coordinates 256 tiles
+	 * apart would give the same checksum
+	 * 
+	 * @param crc The checksum
+	 * @param v The value to add
+	 */
+	private static void updateInt(CRC32 crc, int v) {
+		crc.update(v >>> 24);
+		crc.update(v >>> 16);
+		crc.update(v >>> 8);
+		crc.update(v);
+	}
+	
+	/**
+	 * Dense index of a walkable tile
+	 * 
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return The index, -1 if (x,y) is out of bounds or not walkable
+	 */
+	private int getCell(int x, int y) {
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+			return -1;
+		return cellIndex[(y * mapWidth) + x];
+	}
+
+	/**
+	 * Where the teleport on a tile leads
+	 * 
+	 * @param tile Tile index
+	 * @return Tile index of the destination, -1 if there is no teleport on the tile
+	 */
+	private int getPortalDest(int tile) {
+		for(int i = 0; i < portalFrom.length; i++) {
+			if(portalFrom[i] == tile)
+				return portalTo[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Build the tables with a breadth first flood from every walkable tile. Every tile reached while flooding
+	 * from a target moves back the way the flood came to get closer to it. Teleports are flooded backwards from
+	 * their destination to their entrance, and cost one step like any other move
+	 * 
+	 * @param m The map
+	 */
+	private void build(Map m) {
+		int size = numCells * numCells;
+		short[] dist = new short[size];
+		byte[] step = new byte[size];
+		int[] queue = new int[numCells];
+		int[] tileOf = new int[numCells];
+		for(int i = 0; i < cellIndex.length; i++) {
+			if(cellIndex[i] >= 0)
+				tileOf[cellIndex[i]] = i;
+		}
+		
+		Arrays.fill(dist, (short)-1);
+		for(int t = 0; t < numCells; t++) {
+			int row = t * numCells;
+			int head = 0;
+			int tail = 0;
+			dist[row + t] = 0;
+			queue[tail++] = t;
+			
+			while(head < tail) {
+				int current = queue[head++];
+				int tile = tileOf[current];
+				int cx = tile % mapWidth;
+				int cy = tile / mapWidth;
+				short d = (short)(dist[row + current] + 1);
+				
+				for(int n = 0; n < 4; n++) {
+					int c = getCell(cx + NEIGHBOUR_DX[n], cy + NEIGHBOUR_DY[n]);
+					if(c < 0 || dist[row + c] >= 0)
+						continue;
+					dist[row + c] = d;
+					step[row + c] = REVERSE_STEP[n];
+					queue[tail++] = c;
+				}
+				
+				for(int i = 0; i < portalTo.length; i++) {
+					if(portalTo[i] != tile)
+						continue;
+					int c = cellIndex[portalFrom[i]];
+					if(dist[row + c] >= 0)
+						continue;
+					dist[row + c] = d;
+					step[row + c] = Actor.MOVE_TELEPORT;
+					queue[tail++] = c;
+				}
+			}
+		}
+		
+		distance = ShortBuffer.wrap(dist);
+		nextStep = ByteBuffer.wrap(step);
+	}
+
+	/**
+	 * Memory map the tables from a sidecar file
+	 * 
+	 * @param file The sidecar file
+	 * @param checksum Checksum of the map the tables must have been built for
+	 * @return True if the sidecar matched the map and was mapped
+	 */
+	private boolean map(File file, long checksum) {
+		RandomAccessFile raf = null;
+		
+		try {
+			raf = new RandomAccessFile(file, "r");
+			
+			// Check the header before mapping anything
+			if(!raf.readUTF().equals(FILE_MAGIC) || raf.readInt() != FILE_VERSION)
+				return false;
+			if(raf.readLong() != checksum || raf.readInt() != mapWidth || raf.readInt() != mapHeight || raf.readInt() != numCells)
+				return false;
+			
+			long size = (long)numCells * numCells;
+			long offset = raf.getFilePointer();
+			if(raf.length() != offset + (size * 3))
+				return false;
+			
+			// The mapping stays valid after the file is closed
+			FileChannel channel = raf.getChannel();
+			distance = channel.map(FileChannel.MapMode.READ_ONLY, offset, size * 2).asShortBuffer();
+			nextStep = channel.map(FileChannel.MapMode.READ_ONLY, offset + (size * 2), size);
+			return true;
+		} catch(IOException e) {
+			System.out.println("Failed to read route table: " + e.getMessage());
+			return false;
+		} finally {
+			try {
+				if(raf != null)
+					raf.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Save the tables to a sidecar file. The tables are written to a temporary file which then replaces the sidecar,
+	 * since a stale sidecar may still be mapped by a table loaded earlier: rewriting it in place would pull the file
+	 * from under that mapping on Linux and isn't allowed at all on Windows. Where the old sidecar can't be replaced
+	 * it's left as it is, and the table is simply rebuilt next time
+	 * 
+	 * @param file The sidecar file
+	 * @param checksum Checksum of the map the tables were built for
+	 */
+	private void write(File file, long checksum) {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream fout = null;
+		DataOutputStream data;
+		
+		try {
+			fout = new FileOutputStream(temp);
+			data = new DataOutputStream(new BufferedOutputStream(fout, 64 * 1024));
+			
+			// Header
+			data.writeUTF(FILE_MAGIC);
+			data.writeInt(FILE_VERSION);
+			data.writeLong(checksum);
+			data.writeInt(mapWidth);
+			data.writeInt(mapHeight);
+			data.writeInt(numCells);
+			
+			// Tables
+			int size = numCells * numCells;
+			for(int i = 0; i < size; i++)
+				data.writeShort(distance.get(i));
+			for(int i = 0; i < size; i++)
+				data.writeByte(nextStep.get(i));
+			
+			data.close();
+			fout.close();
+		} catch(IOException e) {
+			System.out.println("Failed to write route table: " + e.getMessage());
+			try {
+				if(fout != null)
+					fout.close();
+			} catch(IOException ce) {
+			}
+			temp.delete();
+			return;
+		}
+		
+		// renameTo() doesn't replace an existing file on every platform, so the old sidecar may have to go first
+		if(!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			System.out.println("Failed to write route table: " + file.getPath() + " is in use");
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,218 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+/**
+ * A sprite atlas holds every frame Pac-Man and the ghosts are drawn with, pre-drawn into one sheet for a cell size, so
+ * painting an actor is a single image copy. The sheet has a row for each kind of sprite and colour: Pac-Man facing each
+ * way with the mouth open and closed, a ghost of each colour and the frightened ghost, which looks the same whatever its
+ * colour. Rows are drawn the first time they're needed, so maps with new ghost colours just add rows.
+ * 
+ * The shapes were designed for 32 pixel cells and are scaled to the cell size. Atlases are cached by cell size, so a map
+ * with a different cell size gets its own.
+ * 
+ * 
+ */
+public class SpriteAtlas {
+	// Atlases already built, by cell size
+	private static final HashMap<Integer, SpriteAtlas> atlases = new HashMap<Integer, SpriteAtlas>();
+	
+	// The cell size the shapes were designed for
+	private static final int DESIGN_SIZE = 32;
+	
+	// Kinds of row. Pac-Man rows have a frame for each orientation (Actor.dirOrient) with the mouth open, then the same
+	// with it closed. Ghost rows have the one frame
+	private static final int ROW_PLAYER = 0;
+	private static final int ROW_GHOST = 1;
+	private static final int ROW_GHOST_FEAR = 2;
+	private static final int[] ORIENTATIONS = { 0, 90, 180, -90 };
+	private static final int FRAMES_PER_ROW = ORIENTATIONS.length * 2;
+	
+	private int cellSize;
+	private int pitch; // Size of a frame in the sheet. The arcs can touch one pixel past the cell on the right and bottom
+	private BufferedImage sheet;
+	private int numRows;
+	private HashMap<Long, Integer> rows; // Row of each kind and colour, see rowKey()
+	
+	/**
+	 * Class Constructor. Use get() to get the atlas for a cell size
+	 * 
+	 * @param cs Size of individual cells in pixels
+	 */
+	private SpriteAtlas(int cs) {
+		cellSize = cs;
+		pitch = cs + 1;
+		sheet = new BufferedImage(FRAMES_PER_ROW * pitch, 4 * pitch, BufferedImage.TYPE_INT_ARGB);
+		rows = new HashMap<Long, Integer>();
+	}
+	
+	/**
+	 * Get the atlas for a cell size, creating it the first time it's asked for
+	 * 
+	 * @param cs Size of individual cells in pixels
+	 * @return The atlas
+	 */
+	public static synchronized SpriteAtlas get(int cs) {
+		SpriteAtlas atlas = atlases.get(cs);
+		if(atlas == null) {
+			atlas = new SpriteAtlas(cs);
+			atlases.put(cs, atlas);
+		}
+		return atlas;
+	}
+	
+	/**
+	 * Draw Pac-Man
+	 * 
+	 * @param g The graphics context
+	 * @param c Colour of Pac-Man
+	 * @param orient Direction Pac-Man faces in degrees (0, 90, 180 or -90, see Actor.dirOrient)
+	 * @param mouthClosed True for the frame with the mouth closed
+	 * @param x X coordinate on screen
+	 * @param y Y coordinate on screen
+	 */
+	public void drawPlayer(Graphics2D g, Color c, int orient, boolean mouthClosed, int x, int y) {
+		int frame = 0;
+		for(int i = 0; i < ORIENTATIONS.length; i++) {
+			if(ORIENTATIONS[i] == orient)
+				frame = i;
+		}
+		if(mouthClosed)
+			frame += ORIENTATIONS.length;
+		draw(g, getRow(ROW_PLAYER, c), frame, x, y);
+	}
+	
+	/**
+	 * Draw a ghost
+	 * 
+	 * @param g The graphics context
+	 * @param c Colour of the ghost's body
+	 * @param fear True for the frightened ghost, which is the same whatever the colour
+	 * @param x X coordinate on screen
+	 * @param y Y coordinate on screen
+	 */
+	public void drawGhost(Graphics2D g, Color c, boolean fear, int x, int y) {
+		if(fear)
+			draw(g, getRow(ROW_GHOST_FEAR, null), 0, x, y);
+		else
+			draw(g, getRow(ROW_GHOST, c), 0, x, y);
+	}
+	
+	// Private Methods
+	
+	/**
+	 * Copy a frame from the sheet
+	 * 
+	 * @param g The graphics context
+	 * @param row Row of the frame
+	 * @param frame Column of the frame
+	 * @param x X coordinate on screen
+	 * @param y Y coordinate on screen
+	 */
+	private void draw(Graphics2D g, int row, int frame, int x, int y) {
+		int sx = frame * pitch;
+		int sy = row * pitch;
+		g.drawImage(sheet, x, y, x + pitch, y + pitch, sx, sy, sx + pitch, sy + pitch, null);
+	}
+	
+	/**
+	 * Key of a row in the rows map
+	 * 
+	 * @param kind Kind of row
+	 * @param c Colour, null for kinds that don't depend on it
+	 * @return The key
+	 */
+	private static long rowKey(int kind, Color c) {
+		return ((long)kind << 32) | ((c != null) ? (c.getRGB() & 0xFFFFFFFFL) : 0);
+	}
+	
+	/**
+	 * Get the row of a kind and colour, drawing it if it isn't in the sheet yet
+	 * 
+	 * @param kind Kind of row
+	 * @param c Colour, null for kinds that don't depend on it
+	 * @return The row
+	 */
+	private synchronized int getRow(int kind, Color c) {
+		Long key = rowKey(kind, c);
+		Integer row = rows.get(key);
+		if(row != null)
+			return row;
+		
+		// Make room in the sheet, doubling its height when it's full
+		if((numRows + 1) * pitch > sheet.getHeight()) {
+			BufferedImage larger = new BufferedImage(sheet.getWidth(), sheet.getHeight() * 2, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D lg = larger.createGraphics();
+			lg.drawImage(sheet, 0, 0, null);
+			lg.dispose();
+			sheet = larger;
+		}
+		
+		Graphics2D g = sheet.createGraphics();
+		g.translate(0, numRows * pitch);
+		if(kind == ROW_PLAYER) {
+			for(int i = 0; i < ORIENTATIONS.length; i++) {
+				paintPlayer(g, c, ORIENTATIONS[i], false, i * pitch);
+				paintPlayer(g, c, ORIENTATIONS[i], true, (i + ORIENTATIONS.length) * pitch);
+			}
+		} else {
+			paintGhost(g, c, kind == ROW_GHOST_FEAR);
+		}
+		g.dispose();
+		
+		rows.put(key, numRows);
+		return numRows++;
+	}
+	
+	/**
+	 * Draw a Pac-Man frame
+	 * 
+	 * @param g Graphics of the sheet, translated to the row
+	 * @param c Colour of Pac-Man
+	 * @param orient Direction Pac-Man faces in degrees
+	 * @param mouthClosed True to draw the mouth closed
+	 * @param x X coordinate of the frame
+	 */
+	private void paintPlayer(Graphics2D g, Color c, int orient, boolean mouthClosed, int x) {
+		g.setColor(c);
+		if(mouthClosed)
+			g.fillArc(x, 0, cellSize, cellSize, 0+orient, 360); // flap closed
+		else
+			g.fillArc(x, 0, cellSize, cellSize, 35+orient, 270);
+	}
+	
+	/**
+	 * Draw a ghost frame
+	 * 
+	 * @param g Graphics of the sheet, translated to the row
+	 * @param c Colour of the ghost's body
+	 * @param fear True to draw the frightened ghost
+	 */
+	private void paintGhost(Graphics2D g, Color c, boolean fear) {
+		// Body
+		g.setColor(fear ? Color.WHITE : c);
+		g.fillArc(0, 0, cellSize, cellSize, 0, 360);
+		g.fillRect(0, cellSize/2, cellSize, cellSize/2);
+		
+		// Eyes
+		g.setColor(fear ? Color.BLACK : Color.WHITE);
+		g.fillOval(scale(6), scale(4), scale(8), scale(10));
+		g.fillOval(scale(16), scale(4), scale(8), scale(10));
+		
+		// Eyeballs
+		g.setColor(Color.BLUE);
+		g.fillOval(scale(8), scale(6), scale(4), scale(4));
+		g.fillOval(scale(18), scale(6), scale(4), scale(4));
+	}
+	
+	/**
+	 * Scale a size in pixels from the cell size the shapes were designed for to this atlas' cell size
+	 * 
+	 * @param v Size at the design cell size
+	 * @return Size at this cell size
+	 */
+	private int scale(int v) {
+		return (v * cellSize) / DESIGN_SIZE;
+	}
+}
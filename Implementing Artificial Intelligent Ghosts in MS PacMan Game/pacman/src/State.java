@@ -44,7 +44,18 @@ public abstract class State implements KeyListener {
 	public abstract void reset();
 	
 	/**
-	 * Primary logic function called in the mainThreadLoop
+	 * Advance the state by one tick of game time. Called Game.TICK_RATE times a second however fast frames are drawn,
+	 * before logic() for the frame. Does nothing by default, for states where nothing moves on its own
+	 * 
+	 * Called only by the Supervisor
+	 * 
+	 * @see Game#TICK_RATE
+	 */
+	public void tick() {
+	}
+	
+	/**
+	 * Primary logic function called in the mainThreadLoop once a frame, after any ticks due. Draws the state
 	 * 
 	 * Called only by the Supervisor
 	 */
@@ -56,6 +67,17 @@ public abstract class State implements KeyListener {
 	 */
 	public abstract void end();
 	
+	/**
+	 * Whether the state only redraws the parts of the screen that changed. Such states mark what changed with
+	 * Game.markDirty() and repaint what Game.takeDamage() gives them, and the supervisor doesn't wipe the screen for them
+	 * 
+	 * @return True if the state tracks damage. False by default, the screen is wiped and logic() redraws all of it
+	 * @see Game#takeDamage()
+	 */
+	public boolean tracksDamage() {
+		return false;
+	}
+	
 	/*
 	 * Human Input default
 	 */
@@ -17,6 +17,7 @@ public class StateEditor extends State {
 	private EditorMarker marker;
 	private boolean gameView;
 	private Map map;
+	private MazeRenderer maze;
 	
 	// Placement variables
 	private int markerObjectType;
@@ -122,6 +123,7 @@ public class StateEditor extends State {
 		// Force previous references out of scope
 		marker = null;
 		map = null;
+		setMaze(null);
 		
 		markerObjectType = GameObject.OBJECT_DOT;
 	}
@@ -138,6 +140,7 @@ public class StateEditor extends State {
 		mapWidth = width;
 		mapHeight = height;
 		map = new Map(28, 31, 32);
+		setMaze(new MazeRenderer(map, game.getGraphicsConfiguration(), game.RES_X, game.RES_Y));
 		
 		// Create the marker (but don't put it "in" the map)
 		marker = new EditorMarker(Color.GREEN, map, 0, 0);
@@ -163,6 +166,7 @@ public class StateEditor extends State {
 		map = new Map(System.getProperty("user.dir") + "\\" + filename, 32);
 		mapWidth = map.getWidth();
 		mapHeight = map.getHeight();
+		setMaze(new MazeRenderer(map, game.getGraphicsConfiguration(), game.RES_X, game.RES_Y));
 		
 		// Create the marker (but don't put it "in" the map)
 		marker = new EditorMarker(Color.GREEN, map, 0, 0);
@@ -184,58 +188,8 @@ public class StateEditor extends State {
 		g.translate(10, 30);
 		
 		// Now run render logic
-		// Paint boundaries and items
-		Item item = null;
-		for(int x = 0; x < mapWidth; x++) {
-			for(int y = 0; y < mapHeight; y++) {
-				// Get and paint the static object here
-				byte sType = map.getCollidable(x, y);
-				
-				// Switch based on wall type and paint
-				g.setColor(Color.BLUE);
-				switch(sType) {
-					case 0:
-						// Nothing
-						break;
-					case GameObject.WALL_VERTICAL:
-						// Vertical wall, no edges
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE, 0, 0); // 2x+12 = map.CELL_SIZE. x = 10
-						break;
-					case GameObject.WALL_HORIZONTAL:
-						// Horizontal wall, no edges
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE, 12, 0, 0);
-						break;
-					case GameObject.WALL_TOPLEFT:
-						//g.fillArc(x*map.CELL_SIZE+10, y*map.CELL_SIZE, map.CELL_SIZE, map.CELL_SIZE, 90, 90);
-						g.fillRoundRect(x*map.CELL_SIZE+(map.CELL_SIZE/2), y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0);
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE+(map.CELL_SIZE/2), 12, map.CELL_SIZE/2, 0, 0);
-						break;
-					case GameObject.WALL_TOPRIGHT:
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0);
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE+(map.CELL_SIZE/2), 12, map.CELL_SIZE/2, 0, 0);
-						break;
-					case GameObject.WALL_BOTTOMLEFT:
-						g.fillRoundRect(x*map.CELL_SIZE+(map.CELL_SIZE/2), y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0); // hori
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE/2, 0, 0); //vert
-						break;
-					case GameObject.WALL_BOTTOMRIGHT:
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0); // hori
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE/2, 0, 0); //vert
-						break;
-					case GameObject.WALL_GHOSTBARRIER:
-						g.setColor(Color.PINK);
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE, 6, 0, 0);
-						break;
-					default:
-						break;
-				}
-				
-				// Paint any of the items here
-				item = map.getItem(x, y);
-				if(item != null)
-					item.paint(g);
-			}
-		}
+		// Paint boundaries and items, drawn once into the maze image and copied here
+		maze.draw(g);
 		
 		// Paint actors ontop
 		int nActors = map.getNumActors();
@@ -271,6 +225,7 @@ public class StateEditor extends State {
 		// Cleanup
 		marker = null;
 		map = null;
+		setMaze(null);
 	}
 
 	/**
@@ -364,5 +319,15 @@ public class StateEditor extends State {
 				break;
 		}
 	}
-
+	
+	/**
+	 * Replace the renderer drawing the map, disposing of the old one
+	 * 
+	 * @param m The new renderer, null for none
+	 */
+	private void setMaze(MazeRenderer m) {
+		if(maze != null)
+			maze.dispose();
+		maze = m;
+	}
 }
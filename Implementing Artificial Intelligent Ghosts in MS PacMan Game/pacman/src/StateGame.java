@@ -1,6 +1,6 @@
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 
 /**
@@ -9,11 +9,12 @@ import java.awt.event.KeyEvent;
  * 
  *
  */
-public class StateGame extends State {
+public class StateGame extends State implements MapListener {
 	
 	// Logic object references
 	private Player player;
 	private Map map;
+	private MazeRenderer maze;
 	private AIManager ai;
 	
 	// Game vars
@@ -22,11 +23,38 @@ public class StateGame extends State {
 	private int sessionScore; // Overall score for the game session. The player object score is only the score for that life / level
 	private int livesRemaining;
 	private boolean gamePaused;
-	private long pauseTime;
+	private int pauseTicks; // Ticks left of a system pause, 0 if there isn't one
+	private int planningMode; // Where ghost path searches run (AIManager.PLANNING_*), kept from level to level
+	private int chaseStrategy; // How chasing ghosts find the player (AIManager.CHASE_*), kept from level to level
 	
 	// Map vars. Store them as class member vars to eliminate function call overhead for getHeight/getWidth
 	private int mapWidth;
 	private int mapHeight;
+	
+	// Where the map is drawn on screen, and the column right of it the UI is drawn in
+	private static final int OFFSET_X = 10;
+	private static final int OFFSET_Y = 30;
+	private static final int HUD_X = 900;
+	
+	// The lines of the UI, only rasterized again when they change
+	private HudText titleText = new HudText(HudText.TEXT_FONT, Color.WHITE, 925, 50, "PACMAN by partho");
+	private HudText scoreText = new HudText(HudText.TEXT_FONT, Color.WHITE, 1000, 100, "");
+	private HudText totalText = new HudText(HudText.TEXT_FONT, Color.WHITE, 1000, 150, "");
+	private HudText livesText = new HudText(HudText.TEXT_FONT, Color.WHITE, 1000, 200, "");
+	private HudText levelText = new HudText(HudText.TEXT_FONT, Color.WHITE, 1000, 250, "");
+	private HudText pausedText = new HudText(HudText.TEXT_FONT, Color.RED, 1000, 500, "PAUSED");
+	private HudText pauseEndsText = new HudText(HudText.TEXT_FONT, Color.RED, 1000, 550, "");
+	private HudText debugText = new HudText(HudText.TEXT_FONT, Color.RED, 1000, 650, "DEBUG ON");
+	private HudText expansionsText = new HudText(HudText.TEXT_FONT, Color.RED, 1000, 675, "");
+	private HudText positionText = new HudText(HudText.TEXT_FONT, Color.RED, 1000, 700, "");
+	
+	// Whether the actors moved since the last frame. They were erased from where they were drawn before they moved
+	private boolean actorsMoved;
+	
+	// What the UI showed when it was last drawn, so it's only redrawn when it changes
+	private boolean pausedDrawn;
+	private boolean pauseEndsDrawn;
+	private boolean debugDrawn;
 
 	/**
 	 * StateGame Constructor
@@ -61,7 +89,9 @@ public class StateGame extends State {
 		currentLevel = 0;
 		sessionScore = 0;
 		livesRemaining = 3;
-		pauseTime = 0;
+		pauseTicks = 0;
+		planningMode = AIManager.PLANNING_SLICED;
+		chaseStrategy = AIManager.CHASE_FLOW_FIELD;
 		
 		// Respawn (start level 1)
 		respawn(true);
@@ -74,7 +104,7 @@ public class StateGame extends State {
 	 */
 	public void respawn(boolean nextLevel) {
 		gamePaused = true;
-		pauseTime = System.currentTimeMillis() + 3000;
+		pauseTicks = 3 * Game.TICK_RATE;
 		
 		// If we're jumping to the next level, reset everything
 		if(nextLevel) {
@@ -83,19 +113,33 @@ public class StateGame extends State {
 			// Force previous references out of scope
 			player = null;
 			map = null;
+			if(maze != null)
+				maze.dispose();
+			maze = null;
+			if(ai != null)
+				ai.shutdown();
 			ai = null;
 			
 			// Setup the game map
 			game.getGraphicsContext().setBackground(Color.BLACK);
-			map = new Map(mapName, 32);
+			MapTemplate template = MapTemplate.load(mapName);
+			map = template.createMap(32);
 			mapWidth = map.getWidth();
 			mapHeight = map.getHeight();
+			maze = new MazeRenderer(map, game.getGraphicsConfiguration(), game.RES_X, game.RES_Y);
+			map.addMapListener(this);
+			game.markAllDirty();
 			
 			// Spawn the player
 			player = map.getPlayer();
 			
-			// Setup AI
+			// Setup AI, routing ghosts through the map's precomputed route table when it's small enough to have one.
+			// Maps too big for a table search for their paths, a node budget per tick at a time unless planning has been
+			// switched to the worker threads
 			ai = new AIManager(map, player, game.isDebugEnabled());
+			ai.setRouteTable(template.getRouteTable());
+			ai.setPlanningMode(planningMode);
+			ai.setChaseStrategy(chaseStrategy);
 			
 			// Slighly increase the game speed 
 			
@@ -107,40 +151,43 @@ public class StateGame extends State {
 				if(a != null) {
 					a.move(a.getSpawnX(), a.getSpawnY());
 					a.setDead(false);
+					a.savePosition();
 					if(a.getType() == GameObject.OBJECT_GHOST)
 						((Ghost)a).updatePath(null);
 				}
 			}
+			markActorsDirty();
 		}
 	}
 	
 	/**
-	 * Main game logic for rendering and processing. Called by mainThreadLoop
+	 * Main game logic for processing. Called by mainThreadLoop once a tick
 	 * 
 	 * @see Game#mainThreadLoop()
-	 * @see State#logic()
+	 * @see State#tick()
 	 */
 	@Override
-	public void logic() {
+	public void tick() {
 		if(map == null)
 			return;
 		
-		Graphics2D g = game.getGraphicsContext();
-		
-		// Offset the buffer so object's arent clipped by the window borders
-		g.translate(10, 30);
-		
-		// Paint right UI with lives remaining, score, highscore etc
-		g.setColor(Color.WHITE);
-		g.setFont(new Font("Comic Sans MS", Font.BOLD, 24));
-		g.drawString("PACMAN by partho", 925, 50);
-		g.drawString("Score: " + player.getScore(), 1000, 100);
-		g.drawString("Total: " + sessionScore, 1000, 150);
-		g.drawString("Lives: " + livesRemaining, 1000, 200);
-		g.drawString("Level: " + currentLevel, 1000, 250);
+		// End a system pause once it's run out
+		if(gamePaused && pauseTicks > 0 && --pauseTicks == 0)
+			gamePaused = false;
 		
-		// Execute game logic for all entites on the map
+		// Execute game logic for all entites on the map, erasing them from where they were drawn last frame if they
+		// haven't been already. Nothing moves while the game is paused
 		if(!gamePaused) {
+			if(!actorsMoved)
+				markActorsDirty();
+			actorsMoved = true;
+			
+			int nActors = map.getNumActors();
+			for(int i = 0; i < nActors; i++) {
+				Actor a = map.getActor(i);
+				if(a != null)
+					a.savePosition();
+			}
 			ai.process();
 			player.act();
 		}
@@ -152,99 +199,84 @@ public class StateGame extends State {
 		}
 		
 		// Check for a win (all dots collected)
-		if(map.getDotsRemaining() <= 0) {
+		if(map.getDotsRemaining() <= 0)
 			win();
+	}
+	
+	/**
+	 * Main game logic for rendering. Called by mainThreadLoop once a frame, after any ticks due
+	 * 
+	 * @see Game#mainThreadLoop()
+	 * @see State#logic()
+	 */
+	@Override
+	public void logic() {
+		if(map == null)
 			return;
-		}
 		
-		// Now run render logic
-		// Paint boundaries and items
-		Item item = null;
-		for(int x = 0; x < mapWidth; x++) {
-			for(int y = 0; y < mapHeight; y++) {
-				// Get and paint the static object here
-				byte sType = map.getCollidable(x, y);
-				
-				// Switch based on wall type and paint
-				g.setColor(Color.BLUE);
-				switch(sType) {
-					case 0:
-						// Nothing
-						break;
-					case GameObject.WALL_VERTICAL:
-						// Vertical wall, no edges
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE, 0, 0); // 2x+12 = map.CELL_SIZE. x = 10
-						break;
-					case GameObject.WALL_HORIZONTAL:
-						// Horizontal wall, no edges
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE, 12, 0, 0);
-						break;
-					case GameObject.WALL_TOPLEFT:
-						g.fillRoundRect(x*map.CELL_SIZE+(map.CELL_SIZE/2), y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0);
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE+(map.CELL_SIZE/2), 12, map.CELL_SIZE/2, 0, 0);
-						break;
-					case GameObject.WALL_TOPRIGHT:
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0);
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE+(map.CELL_SIZE/2), 12, map.CELL_SIZE/2, 0, 0);
-						break;
-					case GameObject.WALL_BOTTOMLEFT:
-						g.fillRoundRect(x*map.CELL_SIZE+(map.CELL_SIZE/2), y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0); // hori
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE/2, 0, 0); //vert
-						break;
-					case GameObject.WALL_BOTTOMRIGHT:
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE/2, 12, 0, 0); // hori
-						g.fillRoundRect(x*map.CELL_SIZE+10, y*map.CELL_SIZE, 12, map.CELL_SIZE/2, 0, 0); //vert
-						break;
-					case GameObject.WALL_GHOSTBARRIER:
-						g.setColor(Color.PINK);
-						g.fillRoundRect(x*map.CELL_SIZE, y*map.CELL_SIZE+10, map.CELL_SIZE, 6, 0, 0);
-						break;
-					default:
-						break;
-				}
-				
-				// Paint any of the items here
-				item = map.getItem(x, y);
-				if(item != null)
-					item.paint(g);
+		// Move the actors to where they are between the last tick and the next. Without a tick since the last frame
+		// they haven't been erased from where they were drawn yet. They stay put while the game is paused
+		if(actorsMoved || !gamePaused) {
+			if(!actorsMoved)
+				markActorsDirty();
+			float alpha = game.getTickAlpha();
+			int nActors = map.getNumActors();
+			for(int i = 0; i < nActors; i++) {
+				Actor a = map.getActor(i);
+				if(a != null)
+					a.setInterpolation(alpha);
 			}
+			markActorsDirty();
+			actorsMoved = false;
 		}
 		
-		// Paint actors ontop
-		int nActors = map.getNumActors();
-		for(int i = 0; i < nActors; i++) {
-			Actor a = map.getActor(i);
-			if(a != null)
-				a.paint(g);
-		}
-		
-		// Debug
-		if(game.isDebugEnabled()) {
-			g.setColor(Color.RED);
-			g.drawString("DEBUG ON", 1000, 650);
-			/*// Paint gridline overlay
-			for(int i = 0; i < mapWidth; i++)
-				g.drawLine(i*map.CELL_SIZE, 0, i*map.CELL_SIZE, mapHeight*map.CELL_SIZE);
-			for(int i = 0; i < mapHeight; i++)
-				g.drawLine(0, i*map.CELL_SIZE, mapWidth*map.CELL_SIZE, i*map.CELL_SIZE);*/
-			
-			// Player X,Y coordinates bottom right
-			g.drawString("X: " + player.getX() + ", Y: " + player.getY(), 1000, 700);
-		}
+		// Mark what changed this frame. Eaten dots are marked by tileChanged(). Debug draws all over the map, so it
+		// repaints everything, as does the frame after it's turned off
+		markHudDirty();
+		if(game.isDebugEnabled() || debugDrawn)
+			game.markAllDirty();
+		debugDrawn = game.isDebugEnabled();
 		
-		// Check for game pause and print pause status
-		if(gamePaused) {
-			g.setColor(Color.RED);
-			g.setFont(new Font("Comic Sans MS", Font.BOLD, 24));
-			g.drawString("PAUSED", 1000, 500);
-			if(pauseTime > System.currentTimeMillis())
-				g.drawString("Pause ends in..." + ((pauseTime-System.currentTimeMillis())/1000), 1000, 550);
-			if(pauseTime != 0 && System.currentTimeMillis() > pauseTime) {
-				pauseTime = 0;
-				gamePaused = false;
-			}
-			return;
+		// Repaint each damaged part of the screen with the clip set to it
+		Graphics2D g = game.getGraphicsContext();
+		Rectangle damaged[] = game.takeDamage();
+		for(Rectangle r : damaged) {
+			Graphics2D part = (Graphics2D)g.create();
+			part.setClip(r);
+			part.setColor(Color.BLACK);
+			part.fillRect(r.x, r.y, r.width, r.height);
+			paint(part);
+			part.dispose();
 		}
+		g.dispose();
+	}
+	
+	/**
+	 * A wall or item changed, repaint its tile
+	 * 
+	 * @see MapListener#tileChanged(Map, int, int)
+	 */
+	@Override
+	public void tileChanged(Map m, int x, int y) {
+		game.markDirty(OFFSET_X + (x * m.CELL_SIZE), OFFSET_Y + (y * m.CELL_SIZE), m.CELL_SIZE, m.CELL_SIZE);
+	}
+	
+	/**
+	 * @see MapListener#mapChanged(Map)
+	 */
+	@Override
+	public void mapChanged(Map m) {
+		game.markAllDirty();
+	}
+	
+	/**
+	 * The game state only redraws what changed each frame
+	 * 
+	 * @see State#tracksDamage()
+	 */
+	@Override
+	public boolean tracksDamage() {
+		return true;
 	}
 	
 	/**
@@ -255,15 +287,21 @@ public class StateGame extends State {
 	@Override
 	public void end() {
 		// Cleanup
+		if(ai != null)
+			ai.shutdown();
+		if(maze != null)
+			maze.dispose();
 		player = null;
 		map = null;
+		maze = null;
+		ai = null;
 	}
 	
 	/**
 	 * Player has won, move to the next level
-	 * Called by logic()
+	 * Called by tick()
 	 * 
-	 * @see StateGame#logic()
+	 * @see StateGame#tick()
 	 */
 	public void win() {
 		sessionScore += player.getScore();
@@ -273,9 +311,9 @@ public class StateGame extends State {
 	
 	/**
 	 * Player has died, reset() if lives remain. Otherwise, request a state change thereby end()ing this state
-	 * Called by logic()
+	 * Called by tick()
 	 * 
-	 * @see StateGame#logic()
+	 * @see StateGame#tick()
 	 */
 	public void lose() {
 		livesRemaining--;
@@ -289,6 +327,101 @@ public class StateGame extends State {
 		}
 	}
 
+	// Private Methods
+	
+	/**
+	 * Paint the UI, the map and the actors
+	 * 
+	 * @param g Graphics of the back buffer, clipped to the part being repainted
+	 */
+	private void paint(Graphics2D g) {
+		// Offset the buffer so object's arent clipped by the window borders
+		g.translate(OFFSET_X, OFFSET_Y);
+		
+		// Paint right UI with lives remaining, score, highscore etc. The values were set by markHudDirty()
+		titleText.draw(g);
+		scoreText.draw(g);
+		totalText.draw(g);
+		livesText.draw(g);
+		levelText.draw(g);
+		
+		// Now run render logic
+		// Paint boundaries and items, drawn once into the maze image and copied here
+		maze.draw(g);
+		
+		// Paint actors ontop
+		int nActors = map.getNumActors();
+		for(int i = 0; i < nActors; i++) {
+			Actor a = map.getActor(i);
+			if(a != null)
+				a.paint(g);
+		}
+		
+		// Debug
+		if(game.isDebugEnabled()) {
+			debugText.draw(g);
+			/*// Paint gridline overlay
+			for(int i = 0; i < mapWidth; i++)
+				g.drawLine(i*map.CELL_SIZE, 0, i*map.CELL_SIZE, mapHeight*map.CELL_SIZE);
+			for(int i = 0; i < mapHeight; i++)
+				g.drawLine(0, i*map.CELL_SIZE, mapWidth*map.CELL_SIZE, i*map.CELL_SIZE);*/
+			
+			// Player X,Y coordinates bottom right
+			positionText.setText("X: " + player.getX() + ", Y: " + player.getY());
+			positionText.draw(g);
+			
+			// Incremental chase planner expansions against what fresh searches would have cost
+			if(ai.getChaseStrategy() == AIManager.CHASE_INCREMENTAL) {
+				expansionsText.setText("Chase expansions: " + ai.getIncrementalExpansions() + " / A* " + ai.getBaselineExpansions());
+				expansionsText.draw(g);
+			}
+		}
+		
+		// Check for game pause and print pause status
+		if(pausedDrawn) {
+			pausedText.draw(g);
+			if(pauseEndsDrawn)
+				pauseEndsText.draw(g);
+		}
+	}
+	
+	/**
+	 * Mark where every actor is drawn as needing a repaint. The sprites reach a pixel past the cell on the right and
+	 * bottom
+	 */
+	private void markActorsDirty() {
+		int cs = map.CELL_SIZE;
+		int nActors = map.getNumActors();
+		for(int i = 0; i < nActors; i++) {
+			Actor a = map.getActor(i);
+			if(a != null)
+				game.markDirty(OFFSET_X + a.getScreenX(), OFFSET_Y + a.getScreenY(), cs + 1, cs + 1);
+		}
+	}
+	
+	/**
+	 * Update the lines of the UI and mark the UI column as needing a repaint if anything shown in it has changed since it
+	 * was last drawn
+	 */
+	private void markHudDirty() {
+		boolean changed = scoreText.setValue("Score: ", player.getScore());
+		changed |= totalText.setValue("Total: ", sessionScore);
+		changed |= livesText.setValue("Lives: ", livesRemaining);
+		changed |= levelText.setValue("Level: ", currentLevel);
+		
+		boolean pauseEnds = gamePaused && pauseTicks > 0;
+		if(pauseEnds)
+			changed |= pauseEndsText.setValue("Pause ends in...", pauseTicks / Game.TICK_RATE);
+		if(gamePaused != pausedDrawn || pauseEnds != pauseEndsDrawn) {
+			pausedDrawn = gamePaused;
+			pauseEndsDrawn = pauseEnds;
+			changed = true;
+		}
+		
+		if(changed)
+			game.markDirty(OFFSET_X + HUD_X, 0, game.RES_X - (OFFSET_X + HUD_X), game.RES_Y);
+	}
+	
 	/**
 	 * Start automove in certain direction
 	 * 
@@ -317,7 +450,7 @@ public class StateGame extends State {
 				break;
 			case KeyEvent.VK_P:
 				// Don't interupt system pauses
-				if(pauseTime < System.currentTimeMillis())
+				if(pauseTicks == 0)
 					gamePaused = !gamePaused;
 				break;
 			case KeyEvent.VK_V:
@@ -325,6 +458,23 @@ public class StateGame extends State {
 				// AI debug
 				ai.setDebugEnabled(game.isDebugEnabled());
 				break;
+			case KeyEvent.VK_A:
+				// Switch ghost path searches between the game thread and the worker threads
+				if(planningMode == AIManager.PLANNING_ASYNC)
+					planningMode = AIManager.PLANNING_SLICED;
+				else
+					planningMode = AIManager.PLANNING_ASYNC;
+				ai.setPlanningMode(planningMode);
+				break;
+			case KeyEvent.VK_C:
+				// Switch chasing ghosts to their incremental planners and back. With debug on, the nodes they expand are
+				// shown against what fresh A* searches would have cost
+				if(chaseStrategy == AIManager.CHASE_INCREMENTAL)
+					chaseStrategy = AIManager.CHASE_FLOW_FIELD;
+				else
+					chaseStrategy = AIManager.CHASE_INCREMENTAL;
+				ai.setChaseStrategy(chaseStrategy);
+				break;
 			case KeyEvent.VK_0:
 				//game.changeState(STATE_MENU);
 				break;
@@ -1,5 +1,4 @@
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import java.io.File;
@@ -18,6 +17,18 @@ public class StateMenu extends State {
 	private byte currentOption;
 	private byte currentMapOption; // Corresponds to the index in mapList
 	private String[] mapList;
+	
+	// Text of the menu, only rasterized again when it changes
+	private HudText titleText = new HudText(HudText.TITLE_FONT, Color.YELLOW, 450, 180, "PACMAN");
+	private HudText[] optionText = {
+		new HudText(HudText.TEXT_FONT, Color.YELLOW, 525, 300, "Play Game"),
+		new HudText(HudText.TEXT_FONT, Color.YELLOW, 525, 340, "Map Editor"),
+		new HudText(HudText.TEXT_FONT, Color.YELLOW, 525, 380, "Scoreboard"),
+		new HudText(HudText.TEXT_FONT, Color.YELLOW, 525, 420, "Exit")
+	};
+	private HudText mapText = new HudText(HudText.TEXT_FONT, Color.YELLOW, 525, 600, "");
+	private int mapTextOption; // Index in mapList mapText shows, -1 when it needs setting
+	private HudText noMapsText = new HudText(HudText.TEXT_FONT, Color.YELLOW, 100, 600, "No maps detected. Have you placed the maps file in the same directory as the program?");
 
 	public StateMenu(Game g) {
 		super(g);
@@ -30,6 +41,7 @@ public class StateMenu extends State {
 		cursorY = 310;
 		currentOption = 0;
 		currentMapOption = 0;
+		mapTextOption = -1;
 		
 		// Load the map list
 		File dir = new File(System.getProperty("user.dir"));
@@ -72,21 +84,22 @@ public class StateMenu extends State {
 		
 		// Draw title
 		g.setColor(Color.YELLOW);
-		g.setFont(new Font("Comic Sans MS", Font.BOLD, 72));
 		g.fillArc(156, 92, 100, 100, 35, 270); // First pacman
-		g.drawString("PACMAN", 450, 180);
+		titleText.draw(g);
 		g.fillArc(960, 92, 100, 100, 35, 270);
 		
 		// Draw menu options
-		g.setFont(new Font("Comic Sans MS", Font.BOLD, 24));
-		g.drawString("Play Game", 525, 300);
-		g.drawString("Map Editor", 525, 340);
-		g.drawString("Scoreboard", 525, 380);
-		g.drawString("Exit", 525, 420);
-		if(mapList.length > 0)
-			g.drawString("Current Map: " + mapList[currentMapOption], 525, 600);
-		else
-			g.drawString("No maps detected. Have you placed the maps file in the same directory as the program?", 100, 600);
+		for(int i = 0; i < optionText.length; i++)
+			optionText[i].draw(g);
+		if(mapList.length > 0) {
+			if(currentMapOption != mapTextOption) {
+				mapText.setText("Current Map: " + mapList[currentMapOption]);
+				mapTextOption = currentMapOption;
+			}
+			mapText.draw(g);
+		} else {
+			noMapsText.draw(g);
+		}
 		
 		// Draw underline cursor
 		g.setColor(Color.RED);
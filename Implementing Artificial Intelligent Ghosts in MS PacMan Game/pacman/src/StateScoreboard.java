@@ -1,5 +1,4 @@
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.event.KeyEvent;
 import java.io.DataInputStream;
@@ -19,6 +18,11 @@ public class StateScoreboard extends State {
 	private String[] names;
 	private int[] scores;
 	private int numScores;
+	
+	// Text of the scoreboard, only rasterized again when it changes
+	private HudText titleText = new HudText(HudText.TITLE_FONT, Color.YELLOW, 450, 180, "Scores");
+	private HudText[] nameText;
+	private HudText[] scoreText;
 
 	/**
 	 * Class Constructor
@@ -41,6 +45,12 @@ public class StateScoreboard extends State {
 		names = new String[10];
 		scores = new int[10];
 		numScores = 0;
+		nameText = new HudText[names.length];
+		scoreText = new HudText[names.length];
+		for(int i = 0; i < names.length; i++) {
+			nameText[i] = new HudText(HudText.TEXT_FONT, Color.YELLOW, 150, 210, "");
+			scoreText[i] = new HudText(HudText.TEXT_FONT, Color.YELLOW, 960, 210, "");
+		}
 		
 		// Read in the scores
 		//readScores();
@@ -65,21 +75,20 @@ public class StateScoreboard extends State {
 		
 		// Draw title
 		g.setColor(Color.YELLOW);
-		g.setFont(new Font("Comic Sans MS", Font.BOLD, 72));
 		g.fillArc(156, 92, 100, 100, 35, 270); // First pacman
-		g.drawString("Scores", 450, 180);
+		titleText.draw(g);
 		g.fillArc(960, 92, 100, 100, 35, 270);
 		g.fillRect(150, 200, 910, 5);
 		
-		g.setFont(new Font("Comic Sans MS", Font.BOLD, 24));
-		
 		// Draw scores
 		for(int i = 0; i < names.length; i++) {
 			if(names[i] == null)
 				continue;
 			
-			g.drawString(names[i], 150, 210);
-			g.drawString(scores[i] + " ", 960, 210);
+			nameText[i].setText(names[i]);
+			nameText[i].draw(g);
+			scoreText[i].setValue("", scores[i]);
+			scoreText[i].draw(g);
 		}
 	}
 	